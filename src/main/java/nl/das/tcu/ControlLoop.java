@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduler for the control loop.
+ *
+ * Every lane (second, minute, hour) runs on its own thread, so a slow minute task
+ * (e.g. a DHT22 read with retries) can not delay the switching of devices in the second lane.
+ * Each tick is scheduled on the next wall-clock boundary of its period, calculated from the
+ * absolute deadline of the previous tick, so lanes do not drift.
+ * When a task overruns one or more of its deadlines the missed ticks are coalesced into
+ * the next one and reported, instead of being executed back to back.
+ * The ticks are timed by the monotonic clock. When the wall clock steps (an NTP correction on
+ * a Pi without a real-time clock) the lane is aligned again on the next boundary of the new time,
+ * so it neither stalls for the size of the step nor reports the step as missed ticks.
+ */
+public class ControlLoop {
+
+	private static Logger log = LoggerFactory.getLogger(ControlLoop.class);
+
+	/** A larger difference between the wall clock and the monotonic clock is a step of the wall clock */
+	static final long MAX_CLOCK_DIFF_MILLIS = 500L;
+
+	private List<Lane> lanes = new ArrayList<>();
+
+	public Lane addLane(String name, long periodMillis, Runnable task) {
+		Lane lane = new Lane(name, periodMillis, task);
+		this.lanes.add(lane);
+		return lane;
+	}
+
+	public void start() {
+		for (Lane lane : this.lanes) {
+			lane.start();
+		}
+	}
+
+	public void stop() {
+		for (Lane lane : this.lanes) {
+			lane.stop();
+		}
+	}
+
+	public List<Lane> getLanes() {
+		return Collections.unmodifiableList(this.lanes);
+	}
+
+	/**
+	 * Calculate the first wall-clock boundary of the given period after the given time.
+	 * The boundaries are aligned on the local time, so an hour lane fires on the full local hour.
+	 *
+	 * @param nowMillis    current time in Epoch milliseconds
+	 * @param periodMillis period of the lane in milliseconds
+	 * @param offsetMillis offset of the local timezone to UTC in milliseconds
+	 * @return the next boundary in Epoch milliseconds
+	 */
+	public static long nextBoundary(long nowMillis, long periodMillis, long offsetMillis) {
+		long local = nowMillis + offsetMillis;
+		return (((local / periodMillis) + 1) * periodMillis) - offsetMillis;
+	}
+
+	/**
+	 * @param deadline     wall-clock deadline of the tick in Epoch milliseconds
+	 * @param periodMillis period of the lane in milliseconds
+	 * @param endMillis    wall-clock time at the end of the tick in Epoch milliseconds
+	 * @param diffMillis   time on the wall clock minus the time on the monotonic clock since the deadline
+	 * @return true when the wall clock stepped, so the next deadline cannot be calculated from the deadline
+	 */
+	static boolean isClockStep(long deadline, long periodMillis, long endMillis, long diffMillis) {
+		// The next deadline can never be more than a period ahead
+		return (Math.abs(diffMillis) > MAX_CLOCK_DIFF_MILLIS) || ((deadline + periodMillis) - endMillis > periodMillis);
+	}
+
+	static long zoneOffsetMillis(long nowMillis) {
+		return ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(nowMillis)).getTotalSeconds() * 1000L;
+	}
+
+	/**
+	 * One periodic task of the control loop with its own thread and timing statistics.
+	 * All statistics are in milliseconds.
+	 */
+	public static class Lane implements Runnable {
+
+		private String name;
+		private long period;
+		private Runnable task;
+		private ScheduledExecutorService executor;
+		private long deadline;
+		// Time of the deadline on the monotonic clock
+		private long deadlineNanos;
+
+		private volatile long ticks;
+		private volatile long coalesced;
+		private volatile long lastLatency;
+		private volatile long maxLatency;
+		private volatile long totalLatency;
+		private volatile long maxJitter;
+		private volatile long totalJitter;
+		private volatile long maxDuration;
+
+		Lane(String name, long periodMillis, Runnable task) {
+			this.name = name;
+			this.period = periodMillis;
+			this.task = task;
+		}
+
+		void start() {
+			this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "ControlLoop-" + this.name);
+				t.setDaemon(false);
+				return t;
+			});
+			long now = System.currentTimeMillis();
+			this.deadline = nextBoundary(now, this.period, zoneOffsetMillis(now));
+			schedule(this.deadline - now);
+		}
+
+		private void schedule(long delay) {
+			this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			this.executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+		void stop() {
+			if (this.executor != null) {
+				this.executor.shutdown();
+			}
+		}
+
+		@Override
+		public void run () {
+			long startNanos = System.nanoTime();
+			long latency = Math.max(0L, TimeUnit.NANOSECONDS.toMillis(startNanos - this.deadlineNanos));
+			if (this.ticks > 0) {
+				long jitter = Math.abs(latency - this.lastLatency);
+				this.totalJitter += jitter;
+				this.maxJitter = Math.max(this.maxJitter, jitter);
+			}
+			this.lastLatency = latency;
+			this.totalLatency += latency;
+			this.maxLatency = Math.max(this.maxLatency, latency);
+			this.ticks++;
+			try {
+				this.task.run();
+			} catch (Throwable e) {
+				// Never let an exception kill the lane
+				log.error("Lane '" + this.name + "' task failed", e);
+			}
+			long endNanos = System.nanoTime();
+			long end = System.currentTimeMillis();
+			this.maxDuration = Math.max(this.maxDuration, TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos));
+			// Schedule the next tick from the absolute deadline, skipping the ticks that have been missed
+			long next = this.deadline + this.period;
+			long diff = (end - this.deadline) - TimeUnit.NANOSECONDS.toMillis(endNanos - this.deadlineNanos);
+			if (isClockStep(this.deadline, this.period, end, diff)) {
+				next = nextBoundary(end, this.period, zoneOffsetMillis(end));
+				log.warn("Lane '" + this.name + "': wall clock stepped by " + diff + " ms; aligned again on the next boundary");
+			} else if (end >= next) {
+				long missed = ((end - next) / this.period) + 1;
+				next += missed * this.period;
+				this.coalesced += missed;
+				log.warn("Lane '" + this.name + "' overran its deadline by " + (end - this.deadline - this.period) + " ms; "
+						+ missed + " tick(s) coalesced");
+			}
+			this.deadline = next;
+			if (!this.executor.isShutdown()) {
+				schedule(Math.max(0L, next - System.currentTimeMillis()));
+			}
+		}
+
+		public String getName () {
+			return this.name;
+		}
+
+		public long getPeriod () {
+			return this.period;
+		}
+
+		public long getTicks () {
+			return this.ticks;
+		}
+
+		public long getCoalesced () {
+			return this.coalesced;
+		}
+
+		public long getLastLatency () {
+			return this.lastLatency;
+		}
+
+		public long getMaxLatency () {
+			return this.maxLatency;
+		}
+
+		public long getAvgLatency () {
+			return this.ticks == 0 ? 0 : this.totalLatency / this.ticks;
+		}
+
+		public long getMaxJitter () {
+			return this.maxJitter;
+		}
+
+		public long getAvgJitter () {
+			return this.ticks < 2 ? 0 : this.totalJitter / (this.ticks - 1);
+		}
+
+		public long getMaxDuration () {
+			return this.maxDuration;
+		}
+
+		@Override
+		public String toString() {
+			return "Lane " + this.name + ": ticks=" + this.ticks + " coalesced=" + this.coalesced
+					+ " latency(avg/max)=" + getAvgLatency() + "/" + this.maxLatency
+					+ " jitter(avg/max)=" + getAvgJitter() + "/" + this.maxJitter
+					+ " duration(max)=" + this.maxDuration;
+		}
+	}
+}
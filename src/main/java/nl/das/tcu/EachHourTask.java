@@ -10,27 +10,41 @@
 package nl.das.tcu;
 
 import java.time.LocalDateTime;
-import java.util.TimerTask;
 
 import nl.das.tcu.objects.Terrarium;
 
 /**
  *
  */
-public class EachHourTask extends TimerTask {
+public class EachHourTask implements Runnable {
 
 	@Override
 	public void run () {
 		Util.println("EachHourTask: task executed!");
 		Terrarium terrarium = Terrarium.getInstance();
-		terrarium.setNow(LocalDateTime.now());
-		if (!terrarium.isTraceOn() && LocalDateTime.now().getHour() == 0) {
-			// Start trace on 00:00
-			terrarium.setTrace(true);
+		synchronized (Terrarium.CONTROL_LOCK) {
+			terrarium.setNow(LocalDateTime.now());
+			if (!terrarium.isTraceOn() && LocalDateTime.now().getHour() == 0) {
+				// Start trace on 00:00
+				terrarium.setTrace(true);
+			}
+			// Each hour
+			// - decrement lifecycle value
+			terrarium.decreaseLifetime(1);
+		}
+		// - report the timing of the control loop lanes
+		if (TCU.getControlLoop() != null) {
+			for (ControlLoop.Lane lane : TCU.getControlLoop().getLanes()) {
+				Util.println(lane.toString());
+			}
+		}
+		// - and of the trace writer
+		Util.println(TraceWriter.getInstance().toString());
+		// - and of the sensor sampler
+		if (terrarium.getSampler() != null) {
+			Util.println(terrarium.getSampler().toString());
+			Util.println(terrarium.getSensors().getRoomSensor().toString());
 		}
-		// Each hour
-		// - decrement lifecycle value
-		terrarium.decreaseLifetime(1);
 	}
 
 }
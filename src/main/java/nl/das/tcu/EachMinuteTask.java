@@ -9,36 +9,51 @@
 
 package nl.das.tcu;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.TimerTask;
 
 import nl.das.tcu.hw.LCD;
+import nl.das.tcu.objects.SensorStore;
 import nl.das.tcu.objects.Terrarium;
 
 /**
  *
  */
-public class EachMinuteTask extends TimerTask {
+public class EachMinuteTask implements Runnable {
 
 	@Override
 	public void run () {
 		Util.println("EachMinuteTask: task executed!");
 		Terrarium terrarium = Terrarium.getInstance();
-		terrarium.setNow(LocalDateTime.now());
-		// - display temperature on LCD line 1
+		// - take the latest sensor values, the sensors are sampled in the background
 		terrarium.readSensorValues();
+		// - display temperature on LCD line 1
 		int tterr = terrarium.getTerrariumTemperature();
 		int troom = terrarium.getRoomTemperature();
 		LCD.getInstance().displayLine1(troom, tterr);
-		Util.traceTemperature(Terrarium.traceFolder + "/" +  Terrarium.traceTempFilename, LocalDateTime.now(), "r=%d t=%d", troom, tterr);
-		// - check timers
-		terrarium.checkTimers();
-		// - check rulesets
-		terrarium.checkTemperatureRules();
-		// - check sprayerrule
-		terrarium.checkSprayerRule();
-		// Check if tracing should be switched off (max 1 day)
-		terrarium.checkTrace();
+		// - store the readings on the trace writer thread, the first reading of a day creates a segment file
+		LocalDateTime time = LocalDateTime.now();
+		int hum = terrarium.getRoomHumidity();
+		int tcpu = terrarium.getCpuTemperature();
+		TraceWriter.getInstance().execute(() -> {
+			try {
+				SensorStore.getInstance().append(time, troom, tterr, hum, tcpu);
+			} catch (IOException e) {
+				Util.println("Error storing sensor values: " + e.getMessage());
+			}
+		});
+		synchronized (Terrarium.CONTROL_LOCK) {
+			terrarium.setNow(LocalDateTime.now());
+			Util.traceTemperature(Terrarium.traceFolder + "/" +  Terrarium.traceTempFilename, LocalDateTime.now(), "r=%d t=%d", troom, tterr);
+			// - check timers
+			terrarium.checkTimers();
+			// - check rulesets
+			terrarium.checkTemperatureRules();
+			// - check sprayerrule
+			terrarium.checkSprayerRule();
+			// Check if tracing should be switched off (max 1 day)
+			terrarium.checkTrace();
+		}
 	}
 
 }
@@ -10,20 +10,21 @@
 package nl.das.tcu;
 
 import java.time.LocalDateTime;
-import java.util.TimerTask;
 
 import nl.das.tcu.objects.Terrarium;
 
 /**
  *
  */
-public class EachSecondTask extends TimerTask {
+public class EachSecondTask implements Runnable {
 
 	@Override
 	public void run () {
 //		Util.println("] EachSecondTask: task executed!");
-		Terrarium.getInstance().setNow(LocalDateTime.now());
-		Terrarium.getInstance().checkDevices();
+		synchronized (Terrarium.CONTROL_LOCK) {
+			Terrarium.getInstance().setNow(LocalDateTime.now());
+			Terrarium.getInstance().checkDevices();
+		}
 	}
 
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.bind.JsonbConfig;
+
+/**
+ * The shared JSON binding instances.
+ *
+ * Creating a Jsonb instance builds a new Yasson runtime and scans the bean metadata again, which
+ * costs far more than the (de)serialization itself. The instances are thread-safe, so they are
+ * created once and used by all handlers, the Bluetooth server and the settings.
+ */
+public class Jsonbs {
+
+	/** Formatted output, null values left out */
+	public static final Jsonb PRETTY = JsonbBuilder.create(new JsonbConfig().withFormatting(true));
+	/** Compact output, null values left out */
+	public static final Jsonb COMPACT = JsonbBuilder.create();
+	/** Formatted output with null values, used for settings.json */
+	public static final Jsonb PRETTY_WITH_NULLS = JsonbBuilder.create(new JsonbConfig().withFormatting(true).withNullValues(true));
+
+	private Jsonbs() {
+	}
+}
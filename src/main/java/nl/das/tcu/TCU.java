@@ -16,13 +16,14 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.Properties;
-import java.util.Timer;
 
 import javax.bluetooth.UUID;
 
 import com.pi4j.system.NetworkInfo;
 
+import nl.das.tcu.hw.DHT22;
 import nl.das.tcu.hw.LCD;
+import nl.das.tcu.objects.SensorStore;
 import nl.das.tcu.objects.Terrarium;
 import nl.das.tcu.rest.BTServer;
 import nl.das.tcu.rest.RestServer;
@@ -32,6 +33,8 @@ import nl.das.tcu.rest.RestServer;
  */
 public class TCU {
     public static final boolean DEBUG_ON = false;
+    private static ControlLoop controlLoop;
+
 	/**
 	 * @param args
 	 */
@@ -50,7 +53,9 @@ public class TCU {
 		Thread restsvr = new Thread() {
 		    @Override
 			public void run(){
-		        RestServer svr = RestServer.getInstance("0.0.0.0", 80);
+		        RestServer svr = RestServer.getInstance("0.0.0.0", 80,
+		        		Integer.parseInt(props.getProperty("io_threads", "" + RestServer.DEFAULT_IO_THREADS)),
+		        		Integer.parseInt(props.getProperty("worker_threads", "" + RestServer.DEFAULT_WORKER_THREADS)));
 		        svr.start();
 		    }
 		};
@@ -64,7 +69,9 @@ public class TCU {
 		    @Override
 			public void run(){
 		        try {
-					new BTServer(props.getProperty("host"), new UUID(props.getProperty("uuid"), false)).start();
+					new BTServer(props.getProperty("host"), new UUID(props.getProperty("uuid"), false),
+							Integer.parseInt(props.getProperty("bt_max_sessions", "" + BTServer.DEFAULT_MAX_SESSIONS)),
+							Integer.parseInt(props.getProperty("bt_idle_timeout", "" + BTServer.DEFAULT_IDLE_TIMEOUT))).start();
 				} catch (IOException e) {
 					Util.println(e.getMessage());
 					e.printStackTrace();
@@ -97,7 +104,10 @@ public class TCU {
 		// Initialize device state
 		terrarium.initDeviceState();
 		// Initialize the Temperature sensors
+		DHT22.readerCpu = Integer.parseInt(props.getProperty("dht22_cpu", "-1"));
 		terrarium.initSensors();
+		// and keep reading them in the background
+		terrarium.startSampling();
 		int tterr = terrarium.getTerrariumTemperature();
 		int troom =  terrarium.getRoomTemperature();
 		lcd.displayLine1(troom, tterr);
@@ -116,16 +126,23 @@ public class TCU {
 		terrarium.initTimers(LocalDateTime.now());
 		terrarium.initRules();
 
-		// Start timer and schedule the seconds-task and the minute-task
-		EachSecondTask t1 = new EachSecondTask();
-		EachMinuteTask t2 = new EachMinuteTask();
-		EachHourTask t3 = new EachHourTask();
-		Timer t = new Timer("Timer");
-		t.schedule(t1, 0L, 1000L); //  executes every second
-		LocalDateTime now = LocalDateTime.now();
-		t.schedule(t2, (60L - now.getSecond()) * 1000L, 60000L); // executes every minute
-		t.schedule(t3, (3600L - ((now.getMinute() * 60L) + now.getSecond())) * 1000L, 3600000L); // executes every hour
+		// Start the control loop with a lane for the seconds-task, the minute-task and the hour-task
+		controlLoop = new ControlLoop();
+		controlLoop.addLane("second", 1000L, new EachSecondTask()); // executes every second
+		controlLoop.addLane("minute", 60000L, new EachMinuteTask()); // executes every minute
+		controlLoop.addLane("hour", 3600000L, new EachHourTask()); // executes every hour
+		controlLoop.start();
+
+		// Write the pending trace lines and sensor readings on exit
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			TraceWriter.getInstance().shutdown();
+			SensorStore.getInstance().close();
+		}, "TraceShutdown"));
 
 		Util.println("Main ended");
 	}
+
+	public static ControlLoop getControlLoop() {
+		return controlLoop;
+	}
 }
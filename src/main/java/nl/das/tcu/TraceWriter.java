@@ -0,0 +1,323 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background writer of the trace files.
+ *
+ * The control threads only put the trace lines in a bounded queue; a single writer thread
+ * collects them and appends them in batches to long-lived file channels. A batch is written when
+ * FLUSH_BYTES are pending or FLUSH_MILLIS after its first line, and on {@link #sync()} and
+ * {@link #shutdown()}. When the queue is full the line is dropped and counted, so a slow SD-card
+ * never delays the control loop.
+ */
+public class TraceWriter {
+
+	private static Logger log = LoggerFactory.getLogger(TraceWriter.class);
+
+	public static final int QUEUE_SIZE = 4096;
+	public static final int FLUSH_BYTES = 8192;
+	public static final long FLUSH_MILLIS = 1000L;
+	private static final int MAX_OPEN_FILES = 4;
+	private static final long SYNC_TIMEOUT_MILLIS = 5000L;
+	// Room in the queue that only commands can use, so a queue full of lines does not drop a command
+	private static final int COMMAND_SLOTS = 16;
+
+	private static TraceWriter instance;
+
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE + COMMAND_SLOTS);
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	// Only used by the writer thread
+	private final Map<String, Pending> pending = new LinkedHashMap<>();
+	private int pendingBytes;
+	private long flushDeadline;
+	private final Map<String, FileChannel> channels = new LinkedHashMap<>(8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+			if (size() > MAX_OPEN_FILES) {
+				close(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * A trace line for a file or a command that has to be executed in order with the lines.
+	 */
+	private static final class Entry {
+		final String file;
+		final byte[] line;
+		final Runnable command;
+
+		Entry(String file, byte[] line, Runnable command) {
+			this.file = file;
+			this.line = line;
+			this.command = command;
+		}
+	}
+
+	/**
+	 * The lines of a file that are not written yet.
+	 */
+	private static final class Pending {
+		final ByteArrayOutputStream buf = new ByteArrayOutputStream(512);
+		int lines;
+	}
+
+	private TraceWriter() {
+		this.thread = new Thread(this::loop, "TraceWriter");
+		this.thread.setDaemon(true);
+		this.thread.setPriority(Thread.MIN_PRIORITY);
+		this.thread.start();
+	}
+
+	public static synchronized TraceWriter getInstance() {
+		if (instance == null) {
+			instance = new TraceWriter();
+		}
+		return instance;
+	}
+
+	/**
+	 * Queue a line to be appended to a trace file. Never blocks.
+	 *
+	 * @return false when the queue is full and the line is dropped
+	 */
+	public boolean append(String file, String line) {
+		if (!this.running || (this.queue.remainingCapacity() <= COMMAND_SLOTS)
+				|| !this.queue.offer(new Entry(file, line.getBytes(StandardCharsets.UTF_8), null))) {
+			this.dropped.incrementAndGet();
+			return false;
+		}
+		this.queued.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Queue a command to be executed on the writer thread, after the lines queued before it are
+	 * written and before the lines queued after it. Used for the creation and pruning of trace files,
+	 * so the calling thread never waits for the file system. Never blocks; a RuntimeException of
+	 * the command is logged.
+	 *
+	 * @return false when also the slots for commands are full and the command is dropped
+	 */
+	public boolean execute(Runnable command) {
+		if (this.running && this.queue.offer(new Entry(null, null, command))) {
+			return true;
+		}
+		this.dropped.incrementAndGet();
+		log.error("Trace queue is full, command dropped");
+		return false;
+	}
+
+	/**
+	 * Write all lines queued so far and wait until they are written.
+	 */
+	public void sync() {
+		await(() -> { });
+	}
+
+	/**
+	 * Write all lines queued so far, close the channel of the file and wait until it is closed.
+	 * Must be called before a trace file is deleted or recreated.
+	 */
+	public void release(String file) {
+		String key = key(file);
+		await(() -> close(this.channels.remove(key)));
+	}
+
+	/**
+	 * Write the pending lines, close all files and stop the writer thread.
+	 */
+	public void shutdown() {
+		sync();
+		this.running = false;
+		this.thread.interrupt();
+		try {
+			this.thread.join(SYNC_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void await(Runnable command) {
+		if (Thread.currentThread() == this.thread) {
+			flush();
+			command.run();
+			return;
+		}
+		if (!this.running) {
+			return;
+		}
+		CountDownLatch done = new CountDownLatch(1);
+		try {
+			this.queue.put(new Entry(null, null, () -> {
+				command.run();
+				done.countDown();
+			}));
+			if (!done.await(SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				log.warn("Trace writer did not respond within {} ms", SYNC_TIMEOUT_MILLIS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loop() {
+		while (this.running || !this.queue.isEmpty()) {
+			try {
+				long wait = this.pendingBytes == 0 ? FLUSH_MILLIS : this.flushDeadline - System.currentTimeMillis();
+				Entry e = wait > 0 ? this.queue.poll(wait, TimeUnit.MILLISECONDS) : this.queue.poll();
+				if (e == null) {
+					flush();
+				} else if (e.command != null) {
+					// Commands see all lines queued before them on disk
+					flush();
+					e.command.run();
+				} else {
+					buffer(e);
+					if ((this.pendingBytes >= FLUSH_BYTES) || (System.currentTimeMillis() >= this.flushDeadline)) {
+						flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				// shutdown: drain what is left
+			} catch (RuntimeException e) {
+				log.error("Trace command failed", e);
+			}
+		}
+		flush();
+		for (FileChannel ch : this.channels.values()) {
+			close(ch);
+		}
+		this.channels.clear();
+	}
+
+	private void buffer(Entry e) {
+		if (this.pendingBytes == 0) {
+			this.flushDeadline = System.currentTimeMillis() + FLUSH_MILLIS;
+		}
+		Pending p = this.pending.computeIfAbsent(key(e.file), k -> new Pending());
+		p.buf.write(e.line, 0, e.line.length);
+		p.lines++;
+		this.pendingBytes += e.line.length;
+		this.queued.decrementAndGet();
+	}
+
+	private void flush() {
+		if (this.pendingBytes == 0) {
+			return;
+		}
+		Iterator<Map.Entry<String, Pending>> it = this.pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Pending> p = it.next();
+			it.remove();
+			ByteBuffer buf = ByteBuffer.wrap(p.getValue().buf.toByteArray());
+			try {
+				FileChannel ch = channel(p.getKey());
+				while (buf.hasRemaining()) {
+					ch.write(buf);
+				}
+				this.written.addAndGet(p.getValue().lines);
+			} catch (IOException e) {
+				this.errors.incrementAndGet();
+				log.error("Cannot write trace file " + p.getKey() + ": " + e.getMessage());
+				close(this.channels.remove(p.getKey()));
+			}
+		}
+		this.pendingBytes = 0;
+		this.batches.incrementAndGet();
+	}
+
+	private FileChannel channel(String file) throws IOException {
+		FileChannel ch = this.channels.get(file);
+		if (ch == null) {
+			// Trace files are created when tracing starts, so a missing file is not recreated
+			ch = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			this.channels.put(file, ch);
+		}
+		return ch;
+	}
+
+	private static String key(String file) {
+		return Paths.get(file).toAbsolutePath().normalize().toString();
+	}
+
+	private static void close(FileChannel ch) {
+		if (ch != null) {
+			try {
+				ch.close();
+			} catch (IOException e) {
+				log.error("Cannot close trace file: " + e.getMessage());
+			}
+		}
+	}
+
+	/** Number of lines waiting in the queue */
+	public long getQueued() {
+		return this.queued.get();
+	}
+
+	/** Number of lines written in a batch */
+	public long getWritten() {
+		return this.written.get();
+	}
+
+	/** Number of lines dropped because the queue was full */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	/** Number of batches written */
+	public long getBatches() {
+		return this.batches.get();
+	}
+
+	/** Number of failed writes of a batch to a file, the lines of such a write are not counted as written */
+	public long getErrors() {
+		return this.errors.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TraceWriter: queued=%d written=%d dropped=%d batches=%d errors=%d",
+				getQueued(), getWritten(), getDropped(), getBatches(), getErrors());
+	}
+}
@@ -10,12 +10,13 @@
 package nl.das.tcu;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -25,11 +26,8 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
 
 import nl.das.tcu.objects.Terrarium;
 
@@ -40,6 +38,9 @@ public class Util {
 
 	static DateTimeFormatter dtfmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 	static DateTimeFormatter tffmt = DateTimeFormatter.ofPattern("yyyyMMdd");
+	// Prefix of a trace file that is created ahead of its day
+	static final String PRECREATED = ".";
+	static final int PRUNE_BATCH = 2;
 
 
 	public static String cvtPeriodToString(long l) {
@@ -65,8 +66,9 @@ public class Util {
 	}
 
 	public static long cvtStringToMinutes(String hhmm) {
-        if (hhmm.contains(":")) {
-		    return (Long.parseLong(hhmm.split(":")[0]) * 60L) + (Long.parseLong(hhmm.split(":")[1]));
+        int ix = hhmm.indexOf(':');
+        if (ix >= 0) {
+		    return (Long.parseLong(hhmm.substring(0, ix)) * 60L) + (Long.parseLong(hhmm.substring(ix + 1)));
         } else {
             return 0L;
         }
@@ -99,81 +101,94 @@ public class Util {
 	    return fileList;
 	}
 
+	/**
+	 * Start the state trace file of the day. The file is created in the background by the
+	 * trace writer, before any line traced after this call is written.
+	 *
+	 * @return the name of the trace file
+	 */
 	public static String createStateTraceFile(String dir, LocalDateTime now) {
-		// Count the number of tracefiles.
-		// If > Terrarium.maxNrOfTraceDays delete oldest first
-		// If file exists, delete it first
-		try {
-			List<String> files = listTraceFiles(dir, "state_");
-			if (files.size() == Terrarium.maxNrOfTraceDays) {
-				Files.deleteIfExists(Paths.get(dir + "/" + files.get(0)));
+		return createTraceFile(dir, "state_", now);
+	}
+
+	/**
+	 * Start the temperature trace file of the day. The file is created in the background by the
+	 * trace writer, before any line traced after this call is written.
+	 *
+	 * @return the name of the trace file
+	 */
+	public static String createTemperatureTraceFile(String dir, LocalDateTime now) {
+		return createTraceFile(dir, "temp_", now);
+	}
+
+	private static String createTraceFile(String dir, String prefix, LocalDateTime now) {
+		String name = prefix + now.format(tffmt);
+		String next = prefix + now.plusDays(1).format(tffmt);
+		TraceWriter.getInstance().execute(() -> {
+			try {
+				startTraceFile(dir, name);
+				pruneTraceFiles(dir, prefix, next);
+				// Create the file of tomorrow now, so the rollover at midnight is just a rename
+				Path pre = Paths.get(dir, PRECREATED + next);
+				if (!Files.exists(pre)) {
+					Files.createFile(pre);
+				}
+			} catch (IOException e) {
+				// Logged by the trace writer
+				throw new UncheckedIOException(e);
 			}
-			Path p = Paths.get(dir + "/state_" + now.format(tffmt));
+		});
+		return name;
+	}
+
+	/**
+	 * Make the (empty) trace file with the given name the current one. If it exists it is replaced.
+	 * Runs on the trace writer thread.
+	 */
+	static void startTraceFile(String dir, String name) throws IOException {
+		Path p = Paths.get(dir, name);
+		Path pre = Paths.get(dir, PRECREATED + name);
+		TraceWriter.getInstance().release(p.toString());
+		if (Files.exists(pre)) {
+			Files.move(pre, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} else {
 			Files.deleteIfExists(p);
 			Files.createFile(p);
-			TimeUnit.SECONDS.sleep(1);
-			return p.getFileName().toString();
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace();
-			return "";
 		}
 	}
 
-	public static String createTemperatureTraceFile(String dir, LocalDateTime now) {
-		// Count the number of tracefiles.
-		// If > Terrarium.maxNrOfTraceDays delete oldest first
-		// If file exists, delete it first
-		try {
-			List<String> files = listTraceFiles(dir, "temp_");
-			if (files.size() == Terrarium.maxNrOfTraceDays) {
-				Files.deleteIfExists(Paths.get(dir + "/" + files.get(0)));
+	/**
+	 * Delete the oldest trace files when there are more than Terrarium.maxNrOfTraceDays,
+	 * at most PRUNE_BATCH per call, and the pre-created files of other days than the next one.
+	 * Runs on the trace writer thread.
+	 */
+	static void pruneTraceFiles(String dir, String prefix, String next) throws IOException {
+		List<String> files = listTraceFiles(dir, prefix);
+		int excess = Math.min(files.size() - Terrarium.maxNrOfTraceDays, PRUNE_BATCH);
+		for (int i = 0; i < excess; i++) {
+			Files.deleteIfExists(Paths.get(dir, files.get(i)));
+		}
+		for (String f : listTraceFiles(dir, PRECREATED + prefix)) {
+			if (!f.equals(PRECREATED + next)) {
+				Files.deleteIfExists(Paths.get(dir, f));
 			}
-			Path p = Paths.get(dir + "/temp_" + now.format(tffmt));
-			Files.deleteIfExists(p);
-			Files.createFile(p);
-			TimeUnit.SECONDS.sleep(1);
-			return p.getFileName().toString();
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace();
-			return "";
 		}
 	}
 
 	public static void traceState(String tracefile, LocalDateTime now, String fmt, Object ...args) {
-		try {
-			if (Terrarium.getInstance().isTraceOn()) {
-				String nowstr = now.format(dtfmt);
-				String format = nowstr + " " + fmt;
-				Files.writeString(
-						Paths.get(tracefile),
-						String.format(format + "\n", args),
-						StandardOpenOption.APPEND
-				);
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (Terrarium.getInstance().isTraceOn()) {
+			TraceWriter.getInstance().append(tracefile, now.format(dtfmt) + " " + String.format(fmt, args) + "\n");
 		}
 	}
 
 	public static void traceTemperature(String tracefile, LocalDateTime now, String fmt, Object ...args) {
-		try {
-			if (Terrarium.getInstance().isTraceOn()) {
-				String nowstr = now.format(dtfmt);
-				String format = nowstr + " " + fmt;
-				Files.writeString(
-						Paths.get(tracefile),
-						String.format(format + "\n", args),
-						StandardOpenOption.APPEND
-				);
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (Terrarium.getInstance().isTraceOn()) {
+			TraceWriter.getInstance().append(tracefile, now.format(dtfmt) + " " + String.format(fmt, args) + "\n");
 		}
 	}
 
 	public static Jsonb parser() {
-		Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withFormatting(true));
-		return jsonb;
+		return Jsonbs.PRETTY;
 	}
 
 	public static void println(String message) {
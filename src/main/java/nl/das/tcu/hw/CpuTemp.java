@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.hw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import nl.das.tcu.Util;
+
+/**
+ * Reads the cpu temperature from the thermal zone in sysfs.
+ *
+ * The file is kept open and read from offset 0 into a reused buffer on every read, sysfs
+ * then produces the current value. When a read fails the file is opened again the next time.
+ */
+public class CpuTemp {
+
+	public static final String THERMAL_ZONE = "/sys/class/thermal/thermal_zone0/temp";
+
+	private final Path path;
+	private final ByteBuffer buf = ByteBuffer.allocate(16);
+	private FileChannel channel;
+
+	public CpuTemp() {
+		this(THERMAL_ZONE);
+	}
+
+	/**
+	 * @param path file that contains the temperature in millidegrees Celsius
+	 */
+	public CpuTemp(String path) {
+		this.path = Paths.get(path);
+	}
+
+	/**
+	 * @return the temperature in millidegrees Celsius
+	 */
+	public synchronized int readMillis() throws IOException {
+		if (this.channel == null) {
+			this.channel = FileChannel.open(this.path, StandardOpenOption.READ);
+		}
+		this.buf.clear();
+		try {
+			int n;
+			while ((n = this.channel.read(this.buf, this.buf.position())) > 0) {
+				this.buf.position(this.buf.position() + n);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		int len = this.buf.position();
+		int i = 0;
+		boolean negative = (len > 0) && (this.buf.get(0) == '-');
+		if (negative) {
+			i++;
+		}
+		int start = i;
+		int v = 0;
+		for (; i < len; i++) {
+			byte b = this.buf.get(i);
+			if ((b < '0') || (b > '9')) {
+				break;
+			}
+			v = (v * 10) + (b - '0');
+		}
+		if (i == start) {
+			throw new IOException("No temperature in " + this.path);
+		}
+		return negative ? -v : v;
+	}
+
+	/**
+	 * @return the temperature in degrees Celsius
+	 */
+	public int getTemperature() throws IOException {
+		return (int) Math.round(readMillis() / 1000.0);
+	}
+
+	public synchronized void close() {
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				Util.println("Error closing " + this.path + ": " + e.getMessage());
+			}
+			this.channel = null;
+		}
+	}
+}
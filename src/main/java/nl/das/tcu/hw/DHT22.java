@@ -12,6 +12,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Objects;
 import java.util.concurrent.Callable;
@@ -20,10 +23,13 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.pi4j.io.gpio.Pin;
 import com.pi4j.wiringpi.Gpio;
 
+import nl.das.tcu.Util;
+
 /**
  * Implements the DHT22 / AM2302 reading in Java using Pi4J.
  *
@@ -36,21 +42,42 @@ public class DHT22 {
 	 */
 	private String name = "MyDHT22";
 	/**
-	 * Time in nanoseconds to separate ZERO and ONE signals.
+	 * Time in nanoseconds to separate ZERO and ONE signals, when they cannot be told apart by their spread.
 	 */
 	private static final int LONGEST_ZERO = 50000;
+	/**
+	 * Minimum difference in nanoseconds between the shortest and longest high time to compute the threshold from them.
+	 */
+	private static final int MIN_SPREAD = 20000;
+	/**
+	 * Number of edges of a read: start and end of the high pulse of each of the 40 bits.
+	 */
+	public static final int NR_OF_EDGES = 80;
 	/**
 	 * Minimum time in milliseconds to wait between reads of sensor.
 	 */
 	public static final int MIN_MILLISECS_BETWEEN_READS = 2500;
+	/**
+	 * CPU to pin the reader thread to, -1 is not pinned.
+	 */
+	public static volatile int readerCpu = -1;
 	/**
 	 * PI4J Pin number.
 	 */
 	private int pinNumber;
 	/**
-	 * 40 bit Data from sensor
+	 * 40 bit Data from sensor, reused by every read
 	 */
-	private byte[] data = null;
+	private final byte[] data = new byte[5];
+	/**
+	 * Edge times in nanoseconds of the last read, reused by every read
+	 */
+	private final long[] edges = new long[NR_OF_EDGES];
+	/**
+	 * Persistent reader thread with the highest priority, created on the first read.
+	 */
+	private ExecutorService reader;
+	private ReadSensorFuture readSensor;
 	/**
 	 * Value of last successful humidity reading.
 	 */
@@ -63,6 +90,14 @@ public class DHT22 {
 	 * Last read attempt
 	 */
 	private Long lastRead = null;
+	/**
+	 * Statistics
+	 */
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong parityErrors = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private volatile long threshold = LONGEST_ZERO;
 	/**
 	 * Constructor with pin used for signal. See PI4J and WiringPI for pin numbering systems.....
 	 *
@@ -85,29 +120,122 @@ public class DHT22 {
 	 * @throws Exception            if failed to successfully read data.
 	 */
 	private void getData () throws IOException {
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-		ReadSensorFuture readSensor = new ReadSensorFuture();
-		Future<byte[]> future = executor.submit(readSensor);
-		// Reset data
-		this.data = new byte[5];
+		if (this.reader == null) {
+			this.reader = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "DHT22-" + this.name);
+				t.setDaemon(true);
+				t.setPriority(Thread.MAX_PRIORITY);
+				return t;
+			});
+			this.readSensor = new ReadSensorFuture();
+		}
+		this.readSensor.open();
+		this.reads.incrementAndGet();
+		Future<Integer> future = this.reader.submit(this.readSensor);
+		int nrOfEdges;
 		try {
-			this.data = future.get(3, TimeUnit.SECONDS);
-			readSensor.close();
+			nrOfEdges = future.get(3, TimeUnit.SECONDS);
 		} catch (Exception e) {
-			readSensor.close();
+			this.timeouts.incrementAndGet();
 			future.cancel(true);
-			executor.shutdown();
 			throw new IOException(e);
+		} finally {
+			// Stops a read that is stuck, so the reader thread is free for the next read
+			this.readSensor.close();
+		}
+		// The bits are classified after the read, so the timing loop only records time stamps
+		this.threshold = decode(this.edges, nrOfEdges, this.data);
+	}
+
+	/**
+	 * Decode the 40 bits of a read from its edge times. edges[2i] is the start and edges[2i+1] the end
+	 * of the high pulse of bit i; a zero is about 27 us high and a one 70 us.
+	 *
+	 * The threshold between a zero and a one is computed from the high times themselves (two-means
+	 * clustering), so a read that is slowed down as a whole by the JIT, the GC or a busy CPU still decodes.
+	 * When all bits have about the same high time the fixed LONGEST_ZERO is used.
+	 *
+	 * @return the threshold in nanoseconds
+	 * @throws IOException when there are less than 80 edges
+	 */
+	public static long decode (long[] edges, int nrOfEdges, byte[] data) throws IOException {
+		if (nrOfEdges < NR_OF_EDGES) {
+			throw new IOException("Incomplete read: " + nrOfEdges + " edges");
+		}
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < 40; i++) {
+			long high = edges[(2 * i) + 1] - edges[2 * i];
+			min = Math.min(min, high);
+			max = Math.max(max, high);
+		}
+		long threshold = LONGEST_ZERO;
+		if ((max - min) >= MIN_SPREAD) {
+			threshold = (min + max) / 2;
+			for (int iter = 0; iter < 4; iter++) {
+				long sumZero = 0;
+				long sumOne = 0;
+				int nrOfOnes = 0;
+				for (int i = 0; i < 40; i++) {
+					long high = edges[(2 * i) + 1] - edges[2 * i];
+					if (high > threshold) {
+						sumOne += high;
+						nrOfOnes++;
+					} else {
+						sumZero += high;
+					}
+				}
+				long t = ((sumZero / (40 - nrOfOnes)) + (sumOne / nrOfOnes)) / 2;
+				if (t == threshold) {
+					break;
+				}
+				threshold = t;
+			}
+		}
+		Arrays.fill(data, (byte) 0);
+		for (int i = 0; i < 40; i++) {
+			data[i / 8] <<= 1;
+			if ((edges[(2 * i) + 1] - edges[2 * i]) > threshold) {
+				data[i / 8] |= 1;
+			}
+		}
+		return threshold;
+	}
+
+	/**
+	 * The checksum is the low byte of the sum of the 4 data bytes.
+	 */
+	public static boolean isParityOk (byte[] data) {
+		return data[4] == (byte) (data[0] + data[1] + data[2] + data[3]);
+	}
+
+	/**
+	 * Pin the current thread to a CPU with taskset, so its timing is not disturbed by other threads.
+	 */
+	private static void pinCurrentThread (int cpu) {
+		try {
+			// /proc/thread-self links to <pid>/task/<tid>
+			String tid = Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString();
+			Process p = new ProcessBuilder("taskset", "-p", "-c", "" + cpu, tid)
+					.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+			if (p.waitFor() != 0) {
+				Util.println("Pinning DHT22 reader to cpu " + cpu + " failed");
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			Util.println("Pinning DHT22 reader to cpu " + cpu + " failed: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		readSensor.close();
-		executor.shutdown();
 	}
 
 	public boolean doReadLoop () throws InterruptedException, IOException {
 		Hashtable<IOException, Integer> exceptions = new Hashtable<IOException, Integer>();
 		for (int i = 0; i < 10; i++) {
+			if (i > 0) {
+				this.retries.incrementAndGet();
+			}
 			try {
-				if (read(false)) {
+				if (read(true)) {
 					return true;
 				}
 			} catch (IOException e) {
@@ -199,7 +327,8 @@ public class DHT22 {
 	}
 
 	private void checkParity () throws ParityCheckException {
-		if (!(this.data[4] == (this.data[0] + this.data[1] + this.data[2] + this.data[3]))) {
+		if (!isParityOk(this.data)) {
+			this.parityErrors.incrementAndGet();
 			throw new ParityCheckException();
 		}
 	}
@@ -212,40 +341,72 @@ public class DHT22 {
 		return this.temperature;
 	}
 
+	/** Number of read attempts */
+	public long getReads () {
+		return this.reads.get();
+	}
+
+	/** Number of read attempts after a failed one */
+	public long getRetries () {
+		return this.retries.get();
+	}
+
+	public long getParityErrors () {
+		return this.parityErrors.get();
+	}
+
+	public long getTimeouts () {
+		return this.timeouts.get();
+	}
+
+	@Override
+	public String toString () {
+		return String.format("DHT22 %s: reads=%d retries=%d parity errors=%d timeouts=%d threshold=%dns", this.name,
+				getReads(), getRetries(), getParityErrors(), getTimeouts(), this.threshold);
+	}
+
 	/**
 	 * Callable Future for reading sensor. Allows timeout if it gets stuck.
 	 */
-	private class ReadSensorFuture implements Callable<byte[]>, Closeable {
+	private class ReadSensorFuture implements Callable<Integer>, Closeable {
 
-		private boolean keepRunning = true;
+		private volatile boolean keepRunning = true;
+		private boolean pinned = false;
 
-		public ReadSensorFuture() {
+		/**
+		 * Prepare a new read.
+		 */
+		public void open () {
+			this.keepRunning = true;
 			Gpio.pinMode(DHT22.this.pinNumber, Gpio.OUTPUT);
 			Gpio.digitalWrite(DHT22.this.pinNumber, Gpio.HIGH);
 		}
 
+		/**
+		 * @return the number of recorded edges
+		 */
 		@Override
-		public byte[] call () throws Exception {
-			// do expensive (slow) stuff before we start and prioritize thread.
-			byte[] data = new byte[5];
-			long startTime = System.nanoTime();
-			Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+		public Integer call () throws Exception {
+			// do expensive (slow) stuff before we start.
+			if (!this.pinned) {
+				this.pinned = true;
+				if (readerCpu >= 0) {
+					pinCurrentThread(readerCpu);
+				}
+			}
+			long[] edges = DHT22.this.edges;
+			int n = 0;
 			sendStartSignal();
 			waitForResponseSignal();
 			for (int i = 0; i < 40; i++) {
 				while (this.keepRunning && (Gpio.digitalRead(DHT22.this.pinNumber) == Gpio.LOW)) {
 				}
-				startTime = System.nanoTime();
+				edges[n++] = System.nanoTime();
 				while (this.keepRunning && (Gpio.digitalRead(DHT22.this.pinNumber) == Gpio.HIGH)) {
 				}
-				long timeHight = System.nanoTime() - startTime;
-				data[i / 8] <<= 1;
-				if (timeHight > LONGEST_ZERO) {
-					data[i / 8] |= 1;
-				}
+				edges[n++] = System.nanoTime();
 			}
-			Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
-			return data;
+			return this.keepRunning ? n : 0;
 		}
 
 		private void sendStartSignal () {
@@ -8,36 +8,201 @@
 
 package nl.das.tcu.hw;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.pi4j.component.temperature.TemperatureSensor;
+import com.pi4j.io.w1.W1Device;
 import com.pi4j.io.w1.W1Master;
-import com.pi4j.temperature.TemperatureScale;
+
+import nl.das.tcu.Util;
 
 /**
  * In order to work add this line to the /boot/firmware/usercfg.txt:
  *    device_tree_overlay=overlays/w1-gpio.dtbo
+ *
+ * The probes on the w1 bus are discovered on the first read and only again after a read failed.
+ * A read takes about 750 ms for the conversion, so every probe has the next read in flight: a read
+ * returns the result of the conversion started by the previous read and starts a new one. The probes
+ * are read in parallel. A read of a probe is only started when its previous read is done, so a read
+ * that hangs in the kernel never takes more than one thread per probe.
  */
 public class DS18B20 {
 
+	/** Maximum time to wait for a conversion */
+	private static final long READ_TIMEOUT = 3000L;
+
+	private static final AtomicInteger threadNr = new AtomicInteger();
+
 	private W1Master w1Master;
+	private final Executor executor;
+	private final long readTimeout;
+	private List<Probe> probes;
+	// The reads of which the result is not used yet by probe id, they survive a new discovery of the probes
+	private final Map<String, CompletableFuture<Double>> reads = new HashMap<>();
+
+	private static class Probe {
+		private final W1Device device;
+		private CompletableFuture<Double> next;
+
+		Probe(W1Device device) {
+			this.device = device;
+		}
+	}
 
 	public DS18B20(W1Master w1Master) {
+		this(w1Master, Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "DS18B20-" + threadNr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}));
+	}
+
+	/**
+	 * @param executor executes the reads of the probes
+	 */
+	public DS18B20(W1Master w1Master, Executor executor) {
+		this(w1Master, executor, READ_TIMEOUT);
+	}
+
+	/**
+	 * @param executor    executes the reads of the probes
+	 * @param readTimeout maximum time to wait for a conversion in milliseconds
+	 */
+	public DS18B20(W1Master w1Master, Executor executor, long readTimeout) {
 		this.w1Master = w1Master;
+		this.executor = executor;
+		this.readTimeout = readTimeout;
 	}
 
+	/**
+	 * @return the temperature of the first probe, 0 when there is no probe or the read failed
+	 */
 	public double getTemperature () {
+		double[] t = getTemperatures();
+		return t.length > 0 ? t[0] : 0;
+	}
 
-		// There is only 1 DS18B20 Temperature sensor on the w1 wire
-		List<TemperatureSensor> devices = this.w1Master.getDevices(TemperatureSensor.class);
-		if (devices.size() > 0) {
-			for (TemperatureSensor d : devices) {
-				if (d.getName().startsWith("28-")) {
-					return d.getTemperature(TemperatureScale.CELSIUS);
+	/**
+	 * @return the temperatures of all probes in order of their id, 0 for a probe of which the read failed
+	 */
+	public synchronized double[] getTemperatures () {
+		List<Probe> ps = probes();
+		// Start the reads that are not in flight, so all probes convert at the same time
+		for (Probe p : ps) {
+			if (p.next == null) {
+				p.next = readAsync(p.device);
+			}
+		}
+		double[] t = new double[ps.size()];
+		boolean failed = false;
+		for (int i = 0; i < ps.size(); i++) {
+			Probe p = ps.get(i);
+			try {
+				t[i] = p.next.get(this.readTimeout, TimeUnit.MILLISECONDS);
+				this.reads.remove(p.device.getId());
+				// Read ahead
+				p.next = readAsync(p.device);
+			} catch (ExecutionException e) {
+				this.reads.remove(p.device.getId());
+				Util.println("Error read DS18B20 " + p.device.getId() + ": " + e.getMessage());
+				failed = true;
+			} catch (TimeoutException e) {
+				// The read is kept, its result is used when it is done
+				Util.println("Error read DS18B20 " + p.device.getId() + ": " + e.getMessage());
+				failed = true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed = true;
+				break;
+			}
+		}
+		if (failed) {
+			// The reads are not cancelled, a cancel does not stop a read that hangs
+			this.probes = null;
+		}
+		return t;
+	}
+
+	/**
+	 * @return the ids of the probes, discovers them when needed
+	 */
+	public synchronized List<String> getIds () {
+		List<String> ids = new ArrayList<>();
+		for (Probe p : probes()) {
+			ids.add(p.device.getId());
+		}
+		return ids;
+	}
+
+	private List<Probe> probes () {
+		if (this.probes == null) {
+			this.w1Master.checkDeviceChanges();
+			List<Probe> ps = new ArrayList<>();
+			for (W1Device d : this.w1Master.getDevices()) {
+				// Family code 28 is the DS18B20
+				if (d.getId().startsWith("28-")) {
+					ps.add(new Probe(d));
 				}
 			}
+			ps.sort(Comparator.comparing(p -> p.device.getId()));
+			// Without probes discover again on the next read
+			if (ps.isEmpty()) {
+				return ps;
+			}
+			this.probes = ps;
 		}
-		return 0;
+		return this.probes;
 	}
 
+	/**
+	 * @return the previous read of the probe when its result is not used yet, otherwise a new read
+	 */
+	private CompletableFuture<Double> readAsync (W1Device device) {
+		CompletableFuture<Double> read = this.reads.get(device.getId());
+		if (read != null) {
+			return read;
+		}
+		read = CompletableFuture.supplyAsync(() -> {
+			try {
+				return parse(device.getValue());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, this.executor);
+		this.reads.put(device.getId(), read);
+		return read;
+	}
+
+	/**
+	 * Parse the content of w1_slave, for instance:
+	 * <pre>
+	 * 72 01 4b 46 7f ff 0e 10 57 : crc=57 YES
+	 * 72 01 4b 46 7f ff 0e 10 57 t=23125
+	 * </pre>
+	 * @return the temperature in degrees Celsius
+	 * @throws IOException when the crc is not correct or there is no temperature
+	 */
+	public static double parse (String value) throws IOException {
+		int ix = value.indexOf("t=");
+		if ((value.indexOf("YES") < 0) || (ix < 0)) {
+			throw new IOException("Invalid value '" + value.trim() + "'");
+		}
+		try {
+			return Integer.parseInt(value.substring(ix + 2).trim()) / 1000.0;
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid value '" + value.trim() + "'");
+		}
+	}
 }
@@ -33,23 +33,33 @@ public class DeviceState {
   public static final long ENDTIME_OFF = 0L;
 
 	private String name;
-	private long onPeriod; // 0 off, -1 indefinite, -2 until ideal value has been reached, >0 endtime in Epoch-seconds
-	private int lifetime; // in hours
-	private boolean manual;
-  private int controlledBy; // > 0: temperature rulenr, 0: not controlled, -1: sprayer rule, -2: mist rule, -3: timer
-
-	public DeviceState() { }
+	// The state itself is kept in a DeviceStateTable, see there for the packing:
+	// onPeriod:     0 off, -1 indefinite, -2 until ideal value has been reached, >0 endtime in Epoch-seconds
+	// lifetime:     in hours
+	// controlledBy: > 0: temperature rulenr, 0: not controlled, -1: sprayer rule, -2: mist rule, -3: timer
+	private DeviceStateTable table;
+	private int id;
+
+	public DeviceState() {
+		this("");
+	}
 
 	public DeviceState(String name) {
-		this.name = name;
-		this.onPeriod = 0;
-		this.lifetime = 0;
-		this.manual = false;
-    this.controlledBy = NOT_CONTROLLED;
+		this(new DeviceStateTable(new String[] { name }), 0);
+	}
+
+	public DeviceState(DeviceStateTable table, int id) {
+		this.table = table;
+		this.id = id;
+		this.name = table.getName(id);
 	}
 
 	public void decreaseLifetime(int nrOfHours) {
-		this.lifetime -= nrOfHours;
+		this.table.decreaseLifetime(this.id, nrOfHours);
+	}
+
+	public int getId () {
+		return this.id;
 	}
 
 	public String getName () {
@@ -61,48 +71,61 @@ public class DeviceState {
 	}
 
 	public int getLifetime () {
-		return this.lifetime;
+		return this.table.getLifetime(this.id);
 	}
 
 	public void setLifetime (int lifetime) {
-		this.lifetime = lifetime;
+		this.table.setLifetime(this.id, lifetime);
+	}
+
+	/**
+	 * @return the packed state, read at once so its fields are consistent; decode it with DeviceStateTable
+	 */
+	public long getPackedState () {
+		return this.table.getState(this.id);
 	}
 
 	public long getOnPeriod () {
-		return this.onPeriod;
+		return this.table.getEndtime(this.id);
 	}
 
 	public void setOnPeriod (long onPeriod) {
-		this.onPeriod = onPeriod;
+		this.table.setEndtime(this.id, onPeriod);
 	}
 
 	public boolean isManual () {
-		return this.manual;
+		return this.table.isManual(this.id);
 	}
 
 	public void setManual (boolean manual) {
-		this.manual = manual;
+		this.table.setManual(this.id, manual);
 	}
 
 
   public int getControlledBy() {
-    return controlledBy;
+    return this.table.getControlledBy(this.id);
   }
 
   public void setControlledBy(int controlledBy) {
-    this.controlledBy = controlledBy;
+    this.table.setControlledBy(this.id, controlledBy);
   }
 
 	public String toJson() {
-		String state = "";
-		if (this.onPeriod == 0) {
-			state = String.format("{\"device\":\"%s\",\"state\":\"off\",\"controlledby\":\"%s\",\"hours_on\":%d,\"manual\":\"%s\"}",
-					this.name, getControlledByText(this.controlledBy),this.lifetime, this.manual ? "yes" : "no");
+		// Read the packed state once, so the JSON is one consistent snapshot
+		long state = this.table.getState(this.id);
+		long onPeriod = DeviceStateTable.endtime(state);
+		int controlledBy = DeviceStateTable.controlledBy(state);
+		int lifetime = DeviceStateTable.lifetime(state);
+		boolean manual = DeviceStateTable.manual(state);
+		String json = "";
+		if (onPeriod == 0) {
+			json = String.format("{\"device\":\"%s\",\"state\":\"off\",\"controlledby\":\"%s\",\"hours_on\":%d,\"manual\":\"%s\"}",
+					this.name, getControlledByText(controlledBy), lifetime, manual ? "yes" : "no");
     } else {
-			state = String.format("{\"device\":\"%s\",\"state\":\"on\",\"controlledby\":\"%s\",\"end_time\":\"%s\",\"hours_on\":%d,\"manual\":\"%s\"}",
-					this.name, getControlledByText(this.controlledBy), getEndtimeText(this.onPeriod),this.lifetime, this.manual ? "yes" : "no");
+			json = String.format("{\"device\":\"%s\",\"state\":\"on\",\"controlledby\":\"%s\",\"end_time\":\"%s\",\"hours_on\":%d,\"manual\":\"%s\"}",
+					this.name, getControlledByText(controlledBy), getEndtimeText(onPeriod), lifetime, manual ? "yes" : "no");
 		}
-		return state;
+		return json;
 	}
 
   public static String getControlledByText(int code) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The state of all devices, indexed by device id (the index in the device list).
+ *
+ * The state of one device is packed into one long, so every change is a single atomic update
+ * that can be done from any thread without locking:
+ * <pre>
+ * bits  0-35 end time + 2 (0 = until ideal, 1 = indefinite, 2 = off, else Epoch-seconds + 2)
+ * bits 36-39 controlled by + 8
+ * bit  40    manual
+ * bits 41-63 lifetime in hours (signed)
+ * </pre>
+ * Every change increments the version of the table, so a view on all states can be cached until it changes.
+ */
+public class DeviceStateTable {
+
+	private static final int ENDTIME_BITS = 36;
+	private static final long ENDTIME_MASK = (1L << ENDTIME_BITS) - 1;
+	private static final int CONTROLLED_SHIFT = 36;
+	private static final long CONTROLLED_MASK = 0xFL;
+	private static final int CONTROLLED_BIAS = 8;
+	private static final int MANUAL_SHIFT = 40;
+	private static final int LIFETIME_SHIFT = 41;
+	private static final long LIFETIME_MASK = (1L << (64 - LIFETIME_SHIFT)) - 1;
+
+	private final String[] names;
+	private final AtomicLongArray states;
+	private final AtomicLong version = new AtomicLong();
+
+	public DeviceStateTable(String[] names) {
+		this.names = names.clone();
+		this.states = new AtomicLongArray(names.length);
+		for (int id = 0; id < names.length; id++) {
+			this.states.set(id, pack(DeviceState.ENDTIME_OFF, DeviceState.NOT_CONTROLLED, false, 0));
+		}
+	}
+
+	public int size() {
+		return this.names.length;
+	}
+
+	public String getName(int id) {
+		return this.names[id];
+	}
+
+	/**
+	 * @return the number of changes made to the table
+	 */
+	public long getVersion() {
+		return this.version.get();
+	}
+
+	/*
+	 * Packing
+	 */
+
+	static long pack(long endtime, int controlledBy, boolean manual, int lifetime) {
+		return ((endtime + 2L) & ENDTIME_MASK)
+				| (((long) (controlledBy + CONTROLLED_BIAS) & CONTROLLED_MASK) << CONTROLLED_SHIFT)
+				| (manual ? 1L << MANUAL_SHIFT : 0L)
+				| (((long) lifetime & LIFETIME_MASK) << LIFETIME_SHIFT);
+	}
+
+	public static long endtime(long state) {
+		return (state & ENDTIME_MASK) - 2L;
+	}
+
+	public static int controlledBy(long state) {
+		return (int) ((state >>> CONTROLLED_SHIFT) & CONTROLLED_MASK) - CONTROLLED_BIAS;
+	}
+
+	public static boolean manual(long state) {
+		return ((state >>> MANUAL_SHIFT) & 1L) != 0L;
+	}
+
+	public static int lifetime(long state) {
+		// arithmetic shift restores the sign
+		return (int) (state >> LIFETIME_SHIFT);
+	}
+
+	/*
+	 * Reading
+	 */
+
+	public long getState(int id) {
+		return this.states.get(id);
+	}
+
+	public long getEndtime(int id) {
+		return endtime(this.states.get(id));
+	}
+
+	public boolean isOn(int id) {
+		return getEndtime(id) != DeviceState.ENDTIME_OFF;
+	}
+
+	public int getControlledBy(int id) {
+		return controlledBy(this.states.get(id));
+	}
+
+	public boolean isManual(int id) {
+		return manual(this.states.get(id));
+	}
+
+	public int getLifetime(int id) {
+		return lifetime(this.states.get(id));
+	}
+
+	/*
+	 * Updating
+	 */
+
+	/**
+	 * Set the end time and the controller of a device in one atomic update.
+	 *
+	 * @return the previous packed state
+	 */
+	public long switchState(int id, long endtime, int controlledBy) {
+		long prev;
+		long next;
+		do {
+			prev = this.states.get(id);
+			next = pack(endtime, controlledBy, manual(prev), lifetime(prev));
+		} while (!this.states.compareAndSet(id, prev, next));
+		this.version.incrementAndGet();
+		return prev;
+	}
+
+	public void setEndtime(int id, long endtime) {
+		long prev;
+		do {
+			prev = this.states.get(id);
+		} while (!this.states.compareAndSet(id, prev, pack(endtime, controlledBy(prev), manual(prev), lifetime(prev))));
+		this.version.incrementAndGet();
+	}
+
+	public void setControlledBy(int id, int controlledBy) {
+		long prev;
+		do {
+			prev = this.states.get(id);
+		} while (!this.states.compareAndSet(id, prev, pack(endtime(prev), controlledBy, manual(prev), lifetime(prev))));
+		this.version.incrementAndGet();
+	}
+
+	public void setManual(int id, boolean manual) {
+		long prev;
+		do {
+			prev = this.states.get(id);
+		} while (!this.states.compareAndSet(id, prev, pack(endtime(prev), controlledBy(prev), manual, lifetime(prev))));
+		this.version.incrementAndGet();
+	}
+
+	public void setLifetime(int id, int lifetime) {
+		long prev;
+		do {
+			prev = this.states.get(id);
+		} while (!this.states.compareAndSet(id, prev, pack(endtime(prev), controlledBy(prev), manual(prev), lifetime)));
+		this.version.incrementAndGet();
+	}
+
+	public void decreaseLifetime(int id, int nrOfHours) {
+		long prev;
+		do {
+			prev = this.states.get(id);
+		} while (!this.states.compareAndSet(id, prev, pack(endtime(prev), controlledBy(prev), manual(prev), lifetime(prev) - nrOfHours)));
+		this.version.incrementAndGet();
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timing wheel with the pending switch-off times of the devices.
+ *
+ * A device is identified by its index in the device list and has at most one pending end time
+ * (in Epoch-seconds). The wheel has one slot per second; a device is linked into the slot of its
+ * end time modulo the wheel size, end times further away than one revolution simply stay in
+ * their slot until their round has come.
+ * The lists are kept in primitive arrays, so scheduling, cancelling and advancing do not allocate
+ * and advancing one second only visits the devices in that slot.
+ * The methods are synchronized, since devices can be switched from other threads than the control loop.
+ */
+public class DeviceTimerWheel {
+
+	public static final int WHEEL_SIZE = 1024; // must be a power of 2
+	private static final int MASK = WHEEL_SIZE - 1;
+	private static final int NONE = -1;
+	private static final long NOT_STARTED = Long.MIN_VALUE;
+
+	private int[] slotHead = new int[WHEEL_SIZE];
+	private int[] next;
+	private int[] prev;
+	private int[] slotOf;
+	private long[] endtime;
+	private int[] expired;
+	private long cursor = NOT_STARTED;
+	private int size;
+
+	public DeviceTimerWheel(int nrOfDevices) {
+		Arrays.fill(this.slotHead, NONE);
+		this.next = new int[nrOfDevices];
+		this.prev = new int[nrOfDevices];
+		this.slotOf = new int[nrOfDevices];
+		this.endtime = new long[nrOfDevices];
+		this.expired = new int[nrOfDevices];
+		Arrays.fill(this.slotOf, NONE);
+	}
+
+	/**
+	 * Schedule (or reschedule) the switch-off of a device.
+	 *
+	 * @param device index of the device
+	 * @param end    end time in Epoch-seconds
+	 */
+	public synchronized void schedule(int device, long end) {
+		cancel(device);
+		long at = end;
+		if ((this.cursor != NOT_STARTED) && (at <= this.cursor)) {
+			// Already due, so expire it on the next advance
+			at = this.cursor + 1;
+		}
+		int slot = (int) (at & MASK);
+		this.endtime[device] = end;
+		this.slotOf[device] = slot;
+		this.prev[device] = NONE;
+		this.next[device] = this.slotHead[slot];
+		if (this.slotHead[slot] != NONE) {
+			this.prev[this.slotHead[slot]] = device;
+		}
+		this.slotHead[slot] = device;
+		this.size++;
+	}
+
+	/**
+	 * Remove a pending switch-off of a device, if any.
+	 */
+	public synchronized void cancel(int device) {
+		int slot = this.slotOf[device];
+		if (slot == NONE) {
+			return;
+		}
+		if (this.prev[device] != NONE) {
+			this.next[this.prev[device]] = this.next[device];
+		} else {
+			this.slotHead[slot] = this.next[device];
+		}
+		if (this.next[device] != NONE) {
+			this.prev[this.next[device]] = this.prev[device];
+		}
+		this.slotOf[device] = NONE;
+		this.size--;
+	}
+
+	public synchronized boolean isScheduled(int device) {
+		return this.slotOf[device] != NONE;
+	}
+
+	public synchronized long getEndtime(int device) {
+		return isScheduled(device) ? this.endtime[device] : 0L;
+	}
+
+	public synchronized int size() {
+		return this.size;
+	}
+
+	public int getCapacity() {
+		return this.slotOf.length;
+	}
+
+	/**
+	 * Advance the wheel to the given time and remove all devices with an end time at or before it.
+	 * When the time jumps backwards or more than one revolution forward, all devices are visited once.
+	 *
+	 * @param now current time in Epoch-seconds
+	 * @return the number of expired devices, their indices are in {@link #getExpired()}
+	 */
+	public synchronized int advance(long now) {
+		int n = 0;
+		if (this.size == 0) {
+			this.cursor = now;
+			return 0;
+		}
+		if ((this.cursor == NOT_STARTED) || (now < this.cursor) || ((now - this.cursor) >= WHEEL_SIZE)) {
+			// Time jump: visit every device once and put the pending ones back in the slot of their end time
+			this.cursor = now;
+			for (int d = 0; d < this.slotOf.length; d++) {
+				if (this.slotOf[d] != NONE) {
+					if (this.endtime[d] <= now) {
+						cancel(d);
+						this.expired[n++] = d;
+					} else {
+						schedule(d, this.endtime[d]);
+					}
+				}
+			}
+		} else {
+			for (long t = this.cursor + 1; t <= now; t++) {
+				n = expire((int) (t & MASK), now, n);
+			}
+			this.cursor = now;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the buffer with the indices of the devices expired by the last {@link #advance(long)}
+	 */
+	public int[] getExpired() {
+		return this.expired;
+	}
+
+	private int expire(int slot, long now, int n) {
+		int d = this.slotHead[slot];
+		while (d != NONE) {
+			int nxt = this.next[d];
+			if (this.endtime[d] <= now) {
+				cancel(d);
+				this.expired[n++] = d;
+			}
+			d = nxt;
+		}
+		return n;
+	}
+}
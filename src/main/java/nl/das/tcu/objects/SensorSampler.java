@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.das.tcu.Util;
+
+/**
+ * Samples the sensors in the background, each on its own thread and cadence, and publishes the
+ * latest valid readings in an immutable {@link Snapshot}.
+ *
+ * The control loop only reads the snapshot, so it never waits for a DHT22 read with retries,
+ * the 1-wire bus or the cpu temperature. A failed or invalid reading is counted and the previous
+ * value is kept; its time shows how old it is.
+ */
+public class SensorSampler {
+
+	/** The DHT22 can be read once per 2.5 seconds and a read with retries can take 25 seconds */
+	public static final long ROOM_PERIOD = 30000L;
+	public static final long TERRARIUM_PERIOD = 10000L;
+	public static final long CPU_PERIOD = 10000L;
+
+	/**
+	 * Reads a physical sensor.
+	 */
+	public interface Probe {
+		/**
+		 * @return the values of the sensor (room: temperature and humidity, others: temperature)
+		 */
+		double[] read() throws Exception;
+	}
+
+	/**
+	 * The latest valid readings, rounded to whole degrees and percents.
+	 * A time is the Epoch milliseconds of the reading, 0 when there has not been a valid reading yet.
+	 */
+	public static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(0, 0, 0L, 0, 0L, 0, 0L);
+
+		private final int roomTemperature;
+		private final int roomHumidity;
+		private final long roomTime;
+		private final int terrariumTemperature;
+		private final long terrariumTime;
+		private final int cpuTemperature;
+		private final long cpuTime;
+
+		Snapshot(int roomTemperature, int roomHumidity, long roomTime, int terrariumTemperature, long terrariumTime,
+				int cpuTemperature, long cpuTime) {
+			this.roomTemperature = roomTemperature;
+			this.roomHumidity = roomHumidity;
+			this.roomTime = roomTime;
+			this.terrariumTemperature = terrariumTemperature;
+			this.terrariumTime = terrariumTime;
+			this.cpuTemperature = cpuTemperature;
+			this.cpuTime = cpuTime;
+		}
+
+		Snapshot withRoom(int temperature, int humidity, long time) {
+			return new Snapshot(temperature, humidity, time, this.terrariumTemperature, this.terrariumTime, this.cpuTemperature, this.cpuTime);
+		}
+
+		Snapshot withTerrarium(int temperature, long time) {
+			return new Snapshot(this.roomTemperature, this.roomHumidity, this.roomTime, temperature, time, this.cpuTemperature, this.cpuTime);
+		}
+
+		Snapshot withCpu(int temperature, long time) {
+			return new Snapshot(this.roomTemperature, this.roomHumidity, this.roomTime, this.terrariumTemperature, this.terrariumTime, temperature, time);
+		}
+
+		public int getRoomTemperature() {
+			return this.roomTemperature;
+		}
+
+		public int getRoomHumidity() {
+			return this.roomHumidity;
+		}
+
+		public long getRoomTime() {
+			return this.roomTime;
+		}
+
+		public int getTerrariumTemperature() {
+			return this.terrariumTemperature;
+		}
+
+		public long getTerrariumTime() {
+			return this.terrariumTime;
+		}
+
+		public int getCpuTemperature() {
+			return this.cpuTemperature;
+		}
+
+		public long getCpuTime() {
+			return this.cpuTime;
+		}
+	}
+
+	private final Probe room;
+	private final Probe terrarium;
+	private final Probe cpu;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicInteger threadNr = new AtomicInteger();
+	private ScheduledExecutorService executor;
+
+	public SensorSampler(Probe room, Probe terrarium, Probe cpu) {
+		this.room = room;
+		this.terrarium = terrarium;
+		this.cpu = cpu;
+	}
+
+	/**
+	 * A sampler of the hardware sensors.
+	 */
+	public static SensorSampler of(Sensors sensors) {
+		return new SensorSampler(sensors::readRoom, () -> new double[] { sensors.readTerrarium() },
+				() -> new double[] { sensors.getCpuTemp() });
+	}
+
+	public void start() {
+		start(ROOM_PERIOD, TERRARIUM_PERIOD, CPU_PERIOD);
+	}
+
+	/**
+	 * Start sampling; the first readings are taken immediately.
+	 */
+	public synchronized void start(long roomPeriod, long terrariumPeriod, long cpuPeriod) {
+		if (this.executor != null) {
+			return;
+		}
+		// One thread per sensor, so a slow sensor does not delay the others
+		this.executor = Executors.newScheduledThreadPool(3, r -> {
+			Thread t = new Thread(r, "SensorSampler-" + this.threadNr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.executor.scheduleWithFixedDelay(this::sampleRoom, 0L, roomPeriod, TimeUnit.MILLISECONDS);
+		this.executor.scheduleWithFixedDelay(this::sampleTerrarium, 0L, terrariumPeriod, TimeUnit.MILLISECONDS);
+		this.executor.scheduleWithFixedDelay(this::sampleCpu, 0L, cpuPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * @return the latest valid readings, never blocks
+	 */
+	public Snapshot getSnapshot() {
+		return this.snapshot.get();
+	}
+
+	void sampleRoom() {
+		double[] v = read(this.room, "room");
+		// Operating range of the DHT22
+		if ((v != null) && (v[0] >= -40) && (v[0] < 80) && (v[1] >= 0) && (v[1] <= 100)) {
+			long now = System.currentTimeMillis();
+			this.snapshot.updateAndGet(s -> s.withRoom((int) Math.round(v[0]), (int) Math.round(v[1]), now));
+		} else if (v != null) {
+			invalid("room", v[0]);
+		}
+	}
+
+	void sampleTerrarium() {
+		double[] v = read(this.terrarium, "terrarium");
+		// 85 is the power-on value of the DS18B20, 0 is returned when it is not found
+		if ((v != null) && (v[0] > -55) && (v[0] < 125) && (v[0] != 85.0) && (v[0] != 0.0)) {
+			long now = System.currentTimeMillis();
+			this.snapshot.updateAndGet(s -> s.withTerrarium((int) Math.round(v[0]), now));
+		} else if (v != null) {
+			invalid("terrarium", v[0]);
+		}
+	}
+
+	void sampleCpu() {
+		double[] v = read(this.cpu, "cpu");
+		if ((v != null) && (v[0] > 0) && (v[0] < 150)) {
+			long now = System.currentTimeMillis();
+			this.snapshot.updateAndGet(s -> s.withCpu((int) Math.round(v[0]), now));
+		} else if (v != null) {
+			invalid("cpu", v[0]);
+		}
+	}
+
+	private double[] read(Probe probe, String sensor) {
+		this.reads.incrementAndGet();
+		try {
+			return probe.read();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			Util.println("Error reading " + sensor + " sensor: " + e.getClass().getName() + " " + e.getMessage());
+		}
+		this.failures.incrementAndGet();
+		return null;
+	}
+
+	private void invalid(String sensor, double value) {
+		this.failures.incrementAndGet();
+		Util.println("Invalid " + sensor + " sensor value " + value + " ignored");
+	}
+
+	/** Number of reads */
+	public long getReads() {
+		return this.reads.get();
+	}
+
+	/** Number of failed reads and ignored values */
+	public long getFailures() {
+		return this.failures.get();
+	}
+
+	@Override
+	public String toString() {
+		Snapshot s = getSnapshot();
+		long now = System.currentTimeMillis();
+		return String.format("SensorSampler: reads=%d failures=%d age room=%ds terrarium=%ds cpu=%ds", getReads(), getFailures(),
+				age(now, s.getRoomTime()), age(now, s.getTerrariumTime()), age(now, s.getCpuTime()));
+	}
+
+	private static long age(long now, long time) {
+		return time == 0L ? -1L : (now - time) / 1000L;
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only binary store of the sensor readings (room and terrarium temperature, room humidity
+ * and cpu temperature).
+ *
+ * There is one segment file per day (yyyyMMdd.seg) of a fixed size, that is memory-mapped.
+ * A segment has a header and one area per column (time, room, terrarium, humidity, cpu).
+ * Every value is stored as the zigzag varint of its difference with the previous value in the
+ * column, so a reading per minute takes about 5 bytes and a day fits in one 20 KB segment.
+ * <pre>
+ * header (64 bytes):
+ *   0 magic 'TCUS'  4 version  6 nr of columns  8 epoch day  12 nr of rows
+ *  16 end offset of each column (5 ints)  36 last value of each column (5 ints)
+ * column c: starts at HEADER_SIZE + c * COLUMN_SIZE
+ * </pre>
+ * The number of rows is updated last, so a reader never sees a half written row. When the
+ * process stopped in the middle of an append, the end offsets and last values of the columns can
+ * be ahead of the number of rows; they are calculated again from the rows when the segment is opened.
+ */
+public class SensorStore {
+
+	public static final int COL_TIME = 0;
+	public static final int COL_ROOM = 1;
+	public static final int COL_TERRARIUM = 2;
+	public static final int COL_HUMIDITY = 3;
+	public static final int COL_CPU = 4;
+	public static final int NR_OF_COLUMNS = 5;
+
+	public static final int HEADER_SIZE = 64;
+	public static final int COLUMN_SIZE = 4096;
+	public static final int SEGMENT_SIZE = HEADER_SIZE + (NR_OF_COLUMNS * COLUMN_SIZE);
+
+	private static final int MAGIC = 0x54435553; // TCUS
+	private static final short VERSION = 1;
+	private static final int OFS_DAY = 8;
+	private static final int OFS_COUNT = 12;
+	private static final int OFS_END = 16;
+	private static final int OFS_LAST = 36;
+	private static final int MAX_MAPPED = 8;
+	private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+	public static String folder = "sensors";
+	public static int maxNrOfDays = 366;
+
+	private static SensorStore instance;
+
+	/**
+	 * Receives the readings of a scan in time order.
+	 */
+	public interface Visitor {
+		/**
+		 * @param time local date and time as seconds since 1970-01-01T00:00 (no zone offset)
+		 */
+		void visit(long time, int room, int terrarium, int humidity, int cpu);
+	}
+
+	private final Path dir;
+	private final int maxDays;
+	private long dropped;
+	private final Map<Long, MappedByteBuffer> segments = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+			return size() > MAX_MAPPED;
+		}
+	};
+
+	public SensorStore(String folder, int maxNrOfDays) {
+		this.dir = Paths.get(folder);
+		this.maxDays = maxNrOfDays;
+	}
+
+	public static synchronized SensorStore getInstance() {
+		if (instance == null) {
+			instance = new SensorStore(folder, maxNrOfDays);
+		}
+		return instance;
+	}
+
+	/**
+	 * Append a reading.
+	 *
+	 * @return false when the segment of the day is full and the reading is dropped
+	 */
+	public synchronized boolean append(LocalDateTime time, int room, int terrarium, int humidity, int cpu) throws IOException {
+		long day = time.toLocalDate().toEpochDay();
+		MappedByteBuffer seg = segment(day, true);
+		int[] values = { time.toLocalTime().toSecondOfDay(), room, terrarium, humidity, cpu };
+		// First check that every column has room for the value
+		int[] size = new int[NR_OF_COLUMNS];
+		for (int c = 0; c < NR_OF_COLUMNS; c++) {
+			size[c] = varintSize(zigzag(values[c] - seg.getInt(OFS_LAST + (c * 4))));
+			if ((seg.getInt(OFS_END + (c * 4)) + size[c]) > COLUMN_SIZE) {
+				this.dropped++;
+				return false;
+			}
+		}
+		for (int c = 0; c < NR_OF_COLUMNS; c++) {
+			int end = seg.getInt(OFS_END + (c * 4));
+			putVarint(seg, HEADER_SIZE + (c * COLUMN_SIZE) + end, zigzag(values[c] - seg.getInt(OFS_LAST + (c * 4))));
+			seg.putInt(OFS_END + (c * 4), end + size[c]);
+			seg.putInt(OFS_LAST + (c * 4), values[c]);
+		}
+		seg.putInt(OFS_COUNT, seg.getInt(OFS_COUNT) + 1);
+		return true;
+	}
+
+	/**
+	 * Visit the readings from (inclusive) to (exclusive) in time order.
+	 *
+	 * @return the number of visited readings
+	 */
+	public long scan(LocalDateTime from, LocalDateTime to, Visitor visitor) throws IOException {
+		long fromSec = from.toEpochSecond(ZoneOffset.UTC);
+		long toSec = to.toEpochSecond(ZoneOffset.UTC);
+		long n = 0;
+		for (LocalDate d = from.toLocalDate(); !d.isAfter(to.toLocalDate()); d = d.plusDays(1)) {
+			long day = d.toEpochDay();
+			MappedByteBuffer seg;
+			int count;
+			synchronized (this) {
+				seg = segment(day, false);
+				if (seg == null) {
+					continue;
+				}
+				count = seg.getInt(OFS_COUNT);
+			}
+			long dayStart = day * 86400L;
+			int[] pos = new int[NR_OF_COLUMNS];
+			int[] value = new int[NR_OF_COLUMNS];
+			for (int c = 0; c < NR_OF_COLUMNS; c++) {
+				pos[c] = HEADER_SIZE + (c * COLUMN_SIZE);
+			}
+			for (int r = 0; r < count; r++) {
+				for (int c = 0; c < NR_OF_COLUMNS; c++) {
+					// varint decoding, inlined for speed
+					int v = 0;
+					int shift = 0;
+					byte b;
+					do {
+						b = seg.get(pos[c]++);
+						v |= (b & 0x7F) << shift;
+						shift += 7;
+					} while (b < 0);
+					value[c] += (v >>> 1) ^ -(v & 1);
+				}
+				long t = dayStart + value[COL_TIME];
+				if ((t >= fromSec) && (t < toSec)) {
+					visitor.visit(t, value[COL_ROOM], value[COL_TERRARIUM], value[COL_HUMIDITY], value[COL_CPU]);
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return true when there is a segment of the day
+	 */
+	public synchronized boolean hasDay(LocalDate date) {
+		long day = date.toEpochDay();
+		return this.segments.containsKey(day) || Files.exists(segmentPath(day));
+	}
+
+	/** Number of readings dropped because a segment was full */
+	public synchronized long getDropped() {
+		return this.dropped;
+	}
+
+	public synchronized void close() {
+		for (MappedByteBuffer seg : this.segments.values()) {
+			seg.force();
+		}
+		this.segments.clear();
+	}
+
+	private MappedByteBuffer segment(long day, boolean create) throws IOException {
+		MappedByteBuffer seg = this.segments.get(day);
+		if (seg != null) {
+			return seg;
+		}
+		Path p = segmentPath(day);
+		boolean exists = Files.exists(p);
+		if (!exists && !create) {
+			return null;
+		}
+		if (!exists) {
+			Files.createDirectories(this.dir);
+			prune(day);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(p.toFile(), "rw")) {
+			if (raf.length() < SEGMENT_SIZE) {
+				raf.setLength(SEGMENT_SIZE);
+			}
+			// The mapping stays valid after the channel is closed
+			seg = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		}
+		if (seg.getInt(0) == 0) {
+			seg.putInt(OFS_DAY, (int) day);
+			seg.putShort(4, VERSION);
+			seg.putShort(6, (short) NR_OF_COLUMNS);
+			seg.putInt(0, MAGIC);
+		} else if ((seg.getInt(0) != MAGIC) || (seg.getShort(4) != VERSION) || (seg.getInt(OFS_DAY) != (int) day)) {
+			throw new IOException("'" + p + "' is not a sensor segment of " + LocalDate.ofEpochDay(day));
+		} else {
+			recover(seg);
+		}
+		this.segments.put(day, seg);
+		return seg;
+	}
+
+	/**
+	 * Set the end offset and the last value of every column from the rows that are counted, so the
+	 * values of a row that was not completely appended are discarded.
+	 */
+	private static void recover(MappedByteBuffer seg) throws IOException {
+		int count = seg.getInt(OFS_COUNT);
+		for (int c = 0; c < NR_OF_COLUMNS; c++) {
+			int start = HEADER_SIZE + (c * COLUMN_SIZE);
+			int pos = start;
+			int value = 0;
+			for (int r = 0; r < count; r++) {
+				int v = 0;
+				int shift = 0;
+				byte b;
+				do {
+					if (pos >= (start + COLUMN_SIZE)) {
+						throw new IOException("Column " + c + " of the sensor segment has less than " + count + " values");
+					}
+					b = seg.get(pos++);
+					v |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				value += (v >>> 1) ^ -(v & 1);
+			}
+			seg.putInt(OFS_END + (c * 4), pos - start);
+			seg.putInt(OFS_LAST + (c * 4), value);
+		}
+	}
+
+	private Path segmentPath(long day) {
+		return this.dir.resolve(LocalDate.ofEpochDay(day).format(FILE_FORMAT) + ".seg");
+	}
+
+	/**
+	 * Delete the segments that are older than the maximum number of days.
+	 */
+	private void prune(long today) throws IOException {
+		String oldest = LocalDate.ofEpochDay(today - this.maxDays + 1).format(FILE_FORMAT) + ".seg";
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.dir, "*.seg")) {
+			for (Path p : ds) {
+				if (p.getFileName().toString().compareTo(oldest) < 0) {
+					Files.deleteIfExists(p);
+				}
+			}
+		}
+	}
+
+	static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+	private static int varintSize(int v) {
+		int n = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	private static void putVarint(MappedByteBuffer buf, int pos, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put(pos++, (byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put(pos, (byte) v);
+	}
+}
@@ -9,15 +9,9 @@
 
 package nl.das.tcu.objects;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import javax.json.bind.annotation.JsonbTransient;
 
@@ -25,6 +19,7 @@ import com.pi4j.io.gpio.RaspiPin;
 import com.pi4j.io.w1.W1Master;
 
 import nl.das.tcu.Util;
+import nl.das.tcu.hw.CpuTemp;
 import nl.das.tcu.hw.DHT22;
 import nl.das.tcu.hw.DS18B20;
 
@@ -42,6 +37,7 @@ public class Sensors {
 	@JsonbTransient private DS18B20 terrarium = new DS18B20(this.w1Master);
 	@JsonbTransient private DHT22 room = new DHT22(RaspiPin.GPIO_27);
 	@JsonbTransient private boolean roomConnected = true;
+	@JsonbTransient private CpuTemp cpu = new CpuTemp();
 
 	public Sensors() {
 		this.clock = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd-MM-y HH:mm"));
@@ -71,21 +67,46 @@ public class Sensors {
 		this.clock = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd-MM-y HH:mm"));
 	}
 
+	/**
+	 * Read the room sensor, with retries.
+	 *
+	 * @return temperature and humidity
+	 */
+	public double[] readRoom() throws InterruptedException, IOException {
+		this.room.doReadLoop();
+		return new double[] { this.room.getTemperature(), this.room.getHumidity() };
+	}
+
 	@JsonbTransient
-	public int getCpuTemp() {
-		Future<Integer> future = new CpuTemp().getCpuTemp();
+	public DHT22 getRoomSensor() {
+		return this.room;
+	}
 
-		while(!future.isDone()) {
-		    try {
-				Thread.sleep(300);
-			} catch (InterruptedException e) {
-			}
-		}
+	public double readTerrarium() {
+		return this.terrarium.getTemperature();
+	}
+
+	/**
+	 * Take the values of a snapshot of the sampler. A value that is older than 3 sample periods is
+	 * shown as 0, like a sensor that is not connected.
+	 */
+	public void update(SensorSampler.Snapshot s, long now) {
+		boolean room = (now - s.getRoomTime()) <= (3 * SensorSampler.ROOM_PERIOD);
+		this.sensors[0].setTemperature(room ? s.getRoomTemperature() : 0);
+		this.sensors[0].setHumidity(room ? s.getRoomHumidity() : 0);
+		boolean terr = (now - s.getTerrariumTime()) <= (3 * SensorSampler.TERRARIUM_PERIOD);
+		this.sensors[1].setTemperature(terr ? s.getTerrariumTemperature() : 0);
+		boolean cpu = (now - s.getCpuTime()) <= (3 * SensorSampler.CPU_PERIOD);
+		this.sensors[2].setTemperature(cpu ? s.getCpuTemperature() : 0);
+		this.clock = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd-MM-y HH:mm"));
+	}
+
+	@JsonbTransient
+	public int getCpuTemp() {
 		try {
-			Integer result = future.get();
-			return (int) Math.round(result / 1000.0);
-		} catch (InterruptedException | ExecutionException e) {
-			e.printStackTrace();
+			return this.cpu.getTemperature();
+		} catch (IOException e) {
+			Util.println("Error read cpu temperature: " + e.getMessage());
 		}
 		return 0;
 	}
@@ -146,36 +167,4 @@ public class Sensors {
 			this.humidity = humidity;
 		}
 	}
-
-	private static class CpuTemp {
-
-	    private ExecutorService executor = Executors.newSingleThreadExecutor();
-
-	    public Future<Integer> getCpuTemp() {
-			ProcessBuilder builder = new ProcessBuilder();
-			builder.command("sh", "-c", "cat /sys/class/thermal/thermal_zone0/temp");
-			try {
-				Process process = builder.start();
-				return this.executor.submit(() -> {
-					BufferedReader rdr = new BufferedReader(new InputStreamReader(process.getInputStream()));
-				    String line;
-				    int cputemp = 0;
-				    try {
-						while ((line = rdr.readLine()) != null) {
-						    if (line.length() > 2) {
-						    	cputemp = Integer.parseInt(line);
-						    }
-						}
-						rdr.close();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				    return cputemp;
-				});
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			return null;
-	    }
-	}
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+
+import nl.das.tcu.Util;
+
+/**
+ * Minimum, average and maximum of the room and terrarium temperature per time bucket,
+ * computed in one streaming pass over the sensor store and the temperature trace files.
+ *
+ * A trace line looks like "2021-08-01 05:00:00 r=21 t=26"; other lines (start, stop) are skipped.
+ * Only the counters of the buckets are kept in memory, not the lines.
+ */
+public class TemperatureHistory {
+
+	public static final DateTimeFormatter PARM_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+	public static final int MAX_BUCKETS = 10000;
+	private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+	private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+	private static final int ROOM = 0;
+	private static final int TERRARIUM = 1;
+
+	private final LocalDateTime from;
+	private final LocalDateTime to;
+	private final int bucketMinutes;
+	private final long fromMinute;
+	private final long toMinute;
+	private final int[] count;
+	private final int[][] min;
+	private final int[][] max;
+	private final long[][] sum;
+	// Days of the range that are read from the sensor store, their trace lines are skipped
+	private final long firstDay;
+	private final boolean[] storeDays;
+
+	// Cache of the last parsed date of a line
+	private int lastDate = -1;
+	private long lastDayMinute;
+
+	/**
+	 * @param from          start of the range (inclusive)
+	 * @param to            end of the range (exclusive)
+	 * @param bucketMinutes size of a bucket in minutes
+	 * @throws IllegalArgumentException when the range or the bucket size is not valid
+	 */
+	public TemperatureHistory(LocalDateTime from, LocalDateTime to, int bucketMinutes) {
+		if (bucketMinutes <= 0) {
+			throw new IllegalArgumentException("Bucket size must be > 0 minutes.");
+		}
+		if (!to.isAfter(from)) {
+			throw new IllegalArgumentException("'to' must be after 'from'.");
+		}
+		this.from = from;
+		this.to = to;
+		this.bucketMinutes = bucketMinutes;
+		this.fromMinute = epochMinute(from);
+		this.toMinute = epochMinute(to);
+		long n = ((this.toMinute - this.fromMinute) + bucketMinutes - 1) / bucketMinutes;
+		if (n > MAX_BUCKETS) {
+			throw new IllegalArgumentException("Too many buckets (" + n + "), the maximum is " + MAX_BUCKETS + ".");
+		}
+		this.count = new int[(int) n];
+		this.min = new int[2][(int) n];
+		this.max = new int[2][(int) n];
+		this.sum = new long[2][(int) n];
+		this.firstDay = from.toLocalDate().toEpochDay();
+		this.storeDays = new boolean[(int) (to.toLocalDate().toEpochDay() - this.firstDay) + 1];
+	}
+
+	/**
+	 * @param from yyyyMMddHHmm
+	 * @param to   yyyyMMddHHmm
+	 */
+	public static TemperatureHistory of(String from, String to, int bucketMinutes) {
+		try {
+			return new TemperatureHistory(LocalDateTime.parse(from, PARM_FORMAT), LocalDateTime.parse(to, PARM_FORMAT), bucketMinutes);
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("'from' and 'to' must have the format yyyyMMddHHmm.");
+		}
+	}
+
+	/**
+	 * Scan the sensor store for the days it has a segment of, and the temperature trace files
+	 * in the folder for the other days.
+	 */
+	public TemperatureHistory scan(String folder, SensorStore store) throws IOException {
+		boolean all = true;
+		for (int d = 0; d < this.storeDays.length; d++) {
+			this.storeDays[d] = store.hasDay(LocalDate.ofEpochDay(this.firstDay + d));
+			all &= this.storeDays[d];
+		}
+		store.scan(this.from, this.to, (t, room, terr, hum, cpu) -> add(t / 60, room, terr));
+		if (!all) {
+			scan(folder);
+		}
+		return this;
+	}
+
+	/**
+	 * Scan the temperature trace files in the folder that can contain lines of the range.
+	 * A trace file starts on the day in its name and can run into the next day.
+	 */
+	public TemperatureHistory scan(String folder) throws IOException {
+		String first = "temp_" + this.from.toLocalDate().minusDays(1).format(FILE_FORMAT);
+		String last = "temp_" + this.to.toLocalDate().format(FILE_FORMAT);
+		List<String> files = Util.listTraceFiles(folder, "temp_");
+		for (String f : files) {
+			if ((f.compareTo(first) >= 0) && (f.compareTo(last) <= 0)) {
+				try (BufferedReader rdr = Files.newBufferedReader(Paths.get(folder, f), StandardCharsets.UTF_8)) {
+					String ln;
+					while ((ln = rdr.readLine()) != null) {
+						add(ln);
+					}
+				}
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Add one trace line.
+	 */
+	public void add(String line) {
+		// yyyy-MM-dd HH:mm:ss r=<int> t=<int>
+		if ((line.length() < 25) || (line.charAt(4) != '-') || (line.charAt(10) != ' ') || (line.charAt(13) != ':')
+				|| (line.charAt(20) != 'r') || (line.charAt(21) != '=')) {
+			return;
+		}
+		long minute;
+		try {
+			minute = lineMinute(line);
+		} catch (DateTimeException e) {
+			return;
+		}
+		if ((minute < this.fromMinute) || (minute >= this.toMinute) || this.storeDays[(int) ((minute / 1440) - this.firstDay)]) {
+			return;
+		}
+		int ix = line.indexOf(" t=", 22);
+		if (ix < 0) {
+			return;
+		}
+		int room;
+		int terr;
+		try {
+			room = Integer.parseInt(line, 22, ix, 10);
+			terr = Integer.parseInt(line, ix + 3, line.length(), 10);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		add(minute, room, terr);
+	}
+
+	private void add(long minute, int room, int terr) {
+		int b = (int) ((minute - this.fromMinute) / this.bucketMinutes);
+		if (this.count[b] == 0) {
+			this.min[ROOM][b] = room;
+			this.max[ROOM][b] = room;
+			this.min[TERRARIUM][b] = terr;
+			this.max[TERRARIUM][b] = terr;
+		} else {
+			this.min[ROOM][b] = Math.min(this.min[ROOM][b], room);
+			this.max[ROOM][b] = Math.max(this.max[ROOM][b], room);
+			this.min[TERRARIUM][b] = Math.min(this.min[TERRARIUM][b], terr);
+			this.max[TERRARIUM][b] = Math.max(this.max[TERRARIUM][b], terr);
+		}
+		this.sum[ROOM][b] += room;
+		this.sum[TERRARIUM][b] += terr;
+		this.count[b]++;
+	}
+
+	public int getNrOfBuckets() {
+		return this.count.length;
+	}
+
+	public int getCount(int bucket) {
+		return this.count[bucket];
+	}
+
+	public int getRoomMin(int bucket) {
+		return this.min[ROOM][bucket];
+	}
+
+	public double getRoomAvg(int bucket) {
+		return avg(ROOM, bucket);
+	}
+
+	public int getRoomMax(int bucket) {
+		return this.max[ROOM][bucket];
+	}
+
+	public int getTerrariumMin(int bucket) {
+		return this.min[TERRARIUM][bucket];
+	}
+
+	public double getTerrariumAvg(int bucket) {
+		return avg(TERRARIUM, bucket);
+	}
+
+	public int getTerrariumMax(int bucket) {
+		return this.max[TERRARIUM][bucket];
+	}
+
+	/**
+	 * @return {"from":..,"to":..,"bucket":..,"buckets":[..]} with only the buckets that have values
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder(64 + (this.count.length * 120));
+		sb.append("{\"from\":\"").append(this.from.format(PARM_FORMAT))
+			.append("\",\"to\":\"").append(this.to.format(PARM_FORMAT))
+			.append("\",\"bucket\":").append(this.bucketMinutes)
+			.append(",\"buckets\":[");
+		boolean first = true;
+		for (int b = 0; b < this.count.length; b++) {
+			if (this.count[b] == 0) {
+				continue;
+			}
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append("{\"time\":\"").append(this.from.plusMinutes((long) b * this.bucketMinutes).format(BUCKET_FORMAT))
+				.append("\",\"count\":").append(this.count[b])
+				.append(",\"room_min\":").append(getRoomMin(b))
+				.append(",\"room_avg\":").append(String.format(Locale.ROOT, "%.1f", getRoomAvg(b)))
+				.append(",\"room_max\":").append(getRoomMax(b))
+				.append(",\"terr_min\":").append(getTerrariumMin(b))
+				.append(",\"terr_avg\":").append(String.format(Locale.ROOT, "%.1f", getTerrariumAvg(b)))
+				.append(",\"terr_max\":").append(getTerrariumMax(b))
+				.append('}');
+		}
+		return sb.append("]}").toString();
+	}
+
+	private double avg(int sensor, int bucket) {
+		return this.count[bucket] == 0 ? 0.0 : (double) this.sum[sensor][bucket] / this.count[bucket];
+	}
+
+	private long lineMinute(String line) {
+		int date = digits(line, 0, 4) * 10000 + digits(line, 5, 2) * 100 + digits(line, 8, 2);
+		if (date != this.lastDate) {
+			this.lastDate = date;
+			this.lastDayMinute = LocalDate.of(date / 10000, (date / 100) % 100, date % 100).toEpochDay() * 1440L;
+		}
+		return this.lastDayMinute + (digits(line, 11, 2) * 60) + digits(line, 14, 2);
+	}
+
+	private static int digits(String s, int start, int len) {
+		int v = 0;
+		for (int i = start; i < start + len; i++) {
+			v = (v * 10) + (s.charAt(i) - '0');
+		}
+		return v;
+	}
+
+	private static long epochMinute(LocalDateTime dt) {
+		return (dt.toLocalDate().toEpochDay() * 1440L) + (dt.getHour() * 60) + dt.getMinute();
+	}
+}
@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 
 import javax.json.bind.annotation.JsonbTransient;
 
+import nl.das.tcu.TCU;
 import nl.das.tcu.Util;
 
 public class TemperatureRule {
@@ -43,15 +44,19 @@ public class TemperatureRule {
 	 */
 	public int active(LocalDateTime now) {
 		long nowMinutes = (now.getHour() * 60L) + now.getMinute();
-        Util.println("Active? " + this.active + " nowMinutes=" + nowMinutes + " from=" + Util.cvtStringToMinutes(this.from) + " to=" + Util.cvtStringToMinutes(this.to));
+		long fromMinutes = Util.cvtStringToMinutes(this.from);
+		long toMinutes = Util.cvtStringToMinutes(this.to);
+		if (TCU.DEBUG_ON) {
+			Util.println("Active? " + this.active + " nowMinutes=" + nowMinutes + " from=" + fromMinutes + " to=" + toMinutes);
+		}
 		if (this.active.equalsIgnoreCase("yes")) {
-            if (((nowMinutes >= Util.cvtStringToMinutes(this.from)) && (nowMinutes < Util.cvtStringToMinutes(this.to)))) {
+            if (((nowMinutes >= fromMinutes) && (nowMinutes < toMinutes))) {
                 return 0;
             }
-            if (nowMinutes < Util.cvtStringToMinutes(this.from)) {
+            if (nowMinutes < fromMinutes) {
                 return -1;
             }
-            if (nowMinutes > Util.cvtStringToMinutes(this.to)) {
+            if (nowMinutes > toMinutes) {
                 return 1;
             }
         }
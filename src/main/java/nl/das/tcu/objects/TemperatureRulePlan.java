@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.das.tcu.Util;
+
+/**
+ * The temperature rules compiled into an immutable evaluation plan.
+ *
+ * The from/to times are converted to minutes of the day, the threshold to a direction and
+ * a temperature, and the actions without a device are left out. The plan is rebuilt and replaced
+ * as a whole when a rule changes, so an evaluation always sees one consistent set of rules.
+ */
+public class TemperatureRulePlan {
+
+	/** The rule acts when the terrarium temperature is below the threshold */
+	public static final int BELOW = -1;
+	/** The rule has no threshold */
+	public static final int NONE = 0;
+	/** The rule acts when the terrarium temperature is above the threshold */
+	public static final int ABOVE = 1;
+
+	private final int nrOfRules;
+	private final boolean[] active;
+	private final int[] from;
+	private final int[] to;
+	private final int[] direction;
+	private final int[] threshold;
+	private final int[] ideal;
+	private final int[] delay;
+	private final String[][] devices;
+	private final int[][] deviceIndex;
+	private final int[][] onPeriod;
+
+	public TemperatureRulePlan(TemperatureRule[] rules, String[] deviceList) {
+		this.nrOfRules = rules == null ? 0 : rules.length;
+		this.active = new boolean[this.nrOfRules];
+		this.from = new int[this.nrOfRules];
+		this.to = new int[this.nrOfRules];
+		this.direction = new int[this.nrOfRules];
+		this.threshold = new int[this.nrOfRules];
+		this.ideal = new int[this.nrOfRules];
+		this.delay = new int[this.nrOfRules];
+		this.devices = new String[this.nrOfRules][];
+		this.deviceIndex = new int[this.nrOfRules][];
+		this.onPeriod = new int[this.nrOfRules][];
+		for (int r = 0; r < this.nrOfRules; r++) {
+			TemperatureRule rule = rules[r];
+			List<Action> actions = new ArrayList<>();
+			if (rule != null) {
+				this.active[r] = (rule.getActive() != null) && rule.getActive().equalsIgnoreCase("yes");
+				this.from[r] = rule.getFrom() == null ? 0 : (int) Util.cvtStringToMinutes(rule.getFrom());
+				this.to[r] = rule.getTo() == null ? 0 : (int) Util.cvtStringToMinutes(rule.getTo());
+				this.direction[r] = Integer.signum(rule.getTemp_threshold());
+				this.threshold[r] = Math.abs(rule.getTemp_threshold());
+				this.ideal[r] = rule.getTemp_ideal();
+				this.delay[r] = rule.getDelay();
+				if (rule.getActions() != null) {
+					for (Action a : rule.getActions()) {
+						if ((a != null) && (a.getDevice() != null) && !a.getDevice().equalsIgnoreCase("no device")) {
+							actions.add(a);
+						}
+					}
+				}
+			}
+			this.devices[r] = new String[actions.size()];
+			this.deviceIndex[r] = new int[actions.size()];
+			this.onPeriod[r] = new int[actions.size()];
+			for (int i = 0; i < actions.size(); i++) {
+				this.devices[r][i] = actions.get(i).getDevice();
+				this.deviceIndex[r][i] = indexOf(deviceList, actions.get(i).getDevice());
+				this.onPeriod[r][i] = actions.get(i).getOn_period();
+			}
+		}
+	}
+
+	private static int indexOf(String[] deviceList, String device) {
+		if (deviceList != null) {
+			for (int i = 0; i < deviceList.length; i++) {
+				if (deviceList[i].equalsIgnoreCase(device)) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public int size() {
+		return this.nrOfRules;
+	}
+
+	public boolean isActive(int rule) {
+		return this.active[rule];
+	}
+
+	/**
+	 * @return true when the rule is active and the minute of the day is within its time window
+	 */
+	public boolean isValid(int rule, int minuteOfDay) {
+		return this.active[rule] && (minuteOfDay >= this.from[rule]) && (minuteOfDay < this.to[rule]);
+	}
+
+	public int getDirection(int rule) {
+		return this.direction[rule];
+	}
+
+	/**
+	 * @return true when the temperature has passed the threshold in the direction of the rule
+	 */
+	public boolean isTriggered(int rule, int temperature) {
+		switch (this.direction[rule]) {
+		case BELOW:
+			return temperature < this.threshold[rule];
+		case ABOVE:
+			return temperature > this.threshold[rule];
+		default:
+			return false;
+		}
+	}
+
+	public int getIdeal(int rule) {
+		return this.ideal[rule];
+	}
+
+	public int getDelay(int rule) {
+		return this.delay[rule];
+	}
+
+	public int getNrOfActions(int rule) {
+		return this.devices[rule].length;
+	}
+
+	public String getDevice(int rule, int action) {
+		return this.devices[rule][action];
+	}
+
+	public int getDeviceIndex(int rule, int action) {
+		return this.deviceIndex[rule][action];
+	}
+
+	public int getOnPeriod(int rule, int action) {
+		return this.onPeriod[rule][action];
+	}
+}
@@ -9,6 +9,7 @@
 package nl.das.tcu.objects;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
@@ -20,10 +21,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +33,8 @@ import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiPin;
 import com.pi4j.wiringpi.Gpio;
 
+import nl.das.tcu.Jsonbs;
+import nl.das.tcu.TCU;
 import nl.das.tcu.Util;
 
 /**
@@ -68,16 +70,39 @@ public class Terrarium {
     public static final int NR_OF_ACTIONS_PER_RULE = 5;
     public static final int NR_OF_ACTIONS_PER_SPRAYERRULE = 4;
     public static int maxNrOfTraceDays = 30;
+    /**
+     * Lock that serializes the control logic of the lanes of the control loop and every change
+     * made by the REST and Bluetooth servers. It is also taken for the state change when a device
+     * is switched; the listeners are called and the trace is written after it.
+     */
+    public static final Object CONTROL_LOCK = new Object();
 
     public static TerrariumConfig cfg = new TerrariumConfig();
     private static Map<String, Pin> devicePin;
     private static List<Device> devices = new ArrayList<>();
+    private static Device[] deviceById = new Device[0];
+    private static Map<String, Integer> deviceIds = new HashMap<>();
+    private static DeviceStateTable deviceTable = new DeviceStateTable(new String[0]);
     private static Map<String, DeviceState> devStates = new HashMap<>();
+    private static DeviceTimerWheel deviceEndtimes = new DeviceTimerWheel(0);
+    private static int idSprayer = -1;
+    private static int idMist = -1;
+    private static int idFanIn = -1;
+    private static int idFanOut = -1;
+    private static volatile TimerSchedule timerSchedule;
+    private static volatile TemperatureRulePlan rulePlan;
+    private static volatile StateSnapshot stateSnapshot;
+    private static volatile PropertiesSnapshot propertiesSnapshot;
+    private static final AtomicLong stateSeq = new AtomicLong();
+    private static final AtomicLong configVersion = new AtomicLong();
+    private static final List<TerrariumListener> listeners = new CopyOnWriteArrayList<>();
     private RuleState ruleState = new RuleState();
     private static boolean test = false;
     private Sensors sensors = new Sensors();
+    private volatile byte[] sensorsJson;
+    private volatile SensorSampler sampler;
     private static LocalDateTime now;
-    private boolean traceOn = false;
+    private volatile boolean traceOn = false;
     private long traceStartTime;
     private static Terrarium instance = null;
 
@@ -120,9 +145,10 @@ public class Terrarium {
 
     public static Terrarium getInstance(String json) {
         instance = new Terrarium();
-        Jsonb jsonb = JsonbBuilder.create();
-        cfg = jsonb.fromJson(json, TerrariumConfig.class);
+        cfg = Jsonbs.COMPACT.fromJson(json, TerrariumConfig.class);
         NR_OF_DEVICES = cfg.getDeviceList().length;
+        instance.compileTimers();
+        instance.compileRules();
         return instance;
     }
 
@@ -157,6 +183,7 @@ public class Terrarium {
                 timerIndex++;
             }
         }
+        compileTimers();
         // Initialize temperature rules
         Terrarium.cfg.setRules(
                 new TemperatureRule[] {
@@ -183,27 +210,45 @@ public class Terrarium {
                 new Action("no device", 0),
                 new Action("no device", 0)
         }));
+        compileRules();
         saveSettings();
     }
 
     public void initDevices() {
         Gpio.wiringPiSetup();
         // Initialize devices
+        List<Device> devs = new ArrayList<>();
         for (int i = 0; i < Terrarium.cfg.getDeviceList().length; i++) {
             String nm = Terrarium.cfg.getDeviceList()[i];
-            Terrarium.devices.add(new Device(nm, devicePin.get(nm), PinState.LOW, nm.equalsIgnoreCase("uvlight")));
+            devs.add(new Device(nm, devicePin.get(nm), PinState.LOW, nm.equalsIgnoreCase("uvlight")));
         }
+        registerDevices(devs);
     }
 
     public void initMockDevices() {
         // Initialize devices
+        List<Device> devs = new ArrayList<>();
         for (int i = 0; i < NR_OF_DEVICES; i++) {
             String nm = Terrarium.cfg.getDeviceList()[i];
-            Terrarium.devices.add(new Device(nm, nm.equalsIgnoreCase("uvlight")));
+            devs.add(new Device(nm, nm.equalsIgnoreCase("uvlight")));
         }
+        registerDevices(devs);
     }
 
+    /**
+     * The properties only change when the devices or the timers are replaced, so the JSON is built once
+     * and then served from the cache.
+     */
     public String getProperties() {
+        PropertiesSnapshot snapshot = Terrarium.propertiesSnapshot;
+        if ((snapshot == null) || (snapshot.devices != Terrarium.devices) || (snapshot.timers != Terrarium.cfg.getTimers())) {
+            snapshot = new PropertiesSnapshot(Terrarium.devices, Terrarium.cfg.getTimers(), buildProperties());
+            Terrarium.propertiesSnapshot = snapshot;
+        }
+        return snapshot.json;
+    }
+
+    private String buildProperties() {
         String json = "";
         json += "{\"nr_of_timers\":" + Terrarium.cfg.getTimers().length + ",\"nr_of_programs\":" + NR_OF_RULES + ",";
         json += "\"devices\": [";
@@ -220,10 +265,9 @@ public class Terrarium {
     }
 
     public void saveSettings(String settingsPath) {
-        Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withFormatting(true).withNullValues(true));
         try {
             Files.deleteIfExists(Paths.get(settingsPath));
-            Files.writeString(Paths.get(settingsPath), jsonb.toJson(Terrarium.cfg), StandardOpenOption.CREATE_NEW);
+            Files.writeString(Paths.get(settingsPath), Jsonbs.PRETTY_WITH_NULLS.toJson(Terrarium.cfg), StandardOpenOption.CREATE_NEW);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -237,10 +281,9 @@ public class Terrarium {
         try {
             String json = "";
             Files.deleteIfExists(Paths.get("lifecycle.txt"));
-            for (int i = 0; i < NR_OF_DEVICES; i++) {
-                if (Terrarium.devices.get(i).hasLifetime()) {
-                    String nm = Terrarium.devices.get(i).getName();
-                    json += nm + "=" + Terrarium.devStates.get(nm).getLifetime() + "\n";
+            for (int id = 0; id < Terrarium.deviceById.length; id++) {
+                if ((Terrarium.deviceById[id] != null) && Terrarium.deviceById[id].hasLifetime()) {
+                    json += Terrarium.deviceTable.getName(id) + "=" + Terrarium.deviceTable.getLifetime(id) + "\n";
                 }
             }
             Files.writeString(Paths.get("lifecycle.txt"), json, StandardOpenOption.CREATE_NEW);
@@ -250,7 +293,7 @@ public class Terrarium {
     }
 
     public void setLifecycleCounter(String device, int value) {
-        Terrarium.devStates.get(device).setLifetime(value);
+        Terrarium.deviceTable.setLifetime(deviceId(device), value);
         saveLifecycleCounters();
     }
 
@@ -264,7 +307,7 @@ public class Terrarium {
             Util.traceTemperature(traceFolder + "/" + traceTempFilename, now, "start");
             for (String d : Terrarium.cfg.getDeviceList()) {
                 Util.traceState(traceFolder + "/" + traceStateFilename, now, "%s %s %d", d, isDeviceOn(d) ? "1" : "0",
-                        Terrarium.devStates.get(d).getOnPeriod());
+                        Terrarium.deviceTable.getEndtime(deviceId(d)));
             }
         } else if (this.traceOn) {
             Util.traceState(traceFolder + "/" + traceStateFilename, now, "stop");
@@ -297,20 +340,66 @@ public class Terrarium {
     public void initSensors(boolean tst) {
         test = tst;
         this.sensors = new Sensors();
+        this.sensorsJson = null;
         if (!test) {
             this.sensors.readSensorValues();
         }
     }
 
+    /**
+     * Start reading the sensors in the background. From then on the sensor values are taken from
+     * the latest sample, so reading them never waits for the hardware.
+     */
+    public synchronized void startSampling() {
+        if (this.sampler == null) {
+            this.sampler = SensorSampler.of(this.sensors);
+            this.sampler.start();
+        }
+    }
+
+    public synchronized void stopSampling() {
+        if (this.sampler != null) {
+            this.sampler.stop();
+            this.sampler = null;
+        }
+    }
+
+    public SensorSampler getSampler() {
+        return this.sampler;
+    }
+
     public void readSensorValues() {
         if (!test) {
+            readSensors();
+        }
+        sensorsChanged();
+    }
+
+    private void readSensors() {
+        SensorSampler s = this.sampler;
+        if (s != null) {
+            this.sensors.update(s.getSnapshot(), System.currentTimeMillis());
+        } else {
             this.sensors.readSensorValues();
         }
     }
 
+    /**
+     * The last read sensor values as JSON (same content as getSensors()). The sensors are not read,
+     * so this never waits for the hardware. The bytes must not be modified.
+     */
+    public byte[] getSensorsJson() {
+        byte[] json = this.sensorsJson;
+        if (json == null) {
+            json = Jsonbs.PRETTY.toJson(this.sensors).getBytes(StandardCharsets.UTF_8);
+            this.sensorsJson = json;
+        }
+        return json;
+    }
+
     public Sensors getSensors() {
         if (!test) {
-            this.sensors.readSensorValues();
+            readSensors();
         }
         return this.sensors;
     }
@@ -319,6 +408,7 @@ public class Terrarium {
         this.sensors.getSensors()[0].setTemperature(troom);
         this.sensors.getSensors()[1].setTemperature(tterrarium);
         test = true;
+        sensorsChanged();
     }
 
     public void setTestOff() {
@@ -333,6 +423,14 @@ public class Terrarium {
         return this.sensors.getSensors()[1].getTemperature();
     }
 
+    public int getRoomHumidity() {
+        return this.sensors.getSensors()[0].getHumidity();
+    }
+
+    public int getCpuTemperature() {
+        return this.sensors.getSensors()[2].getTemperature();
+    }
+
     /*********************************************
      * Timers
      *********************************************/
@@ -364,6 +462,18 @@ public class Terrarium {
                 }
             }
         }
+        compileTimers();
+    }
+
+    /**
+     * Compile the timers into the minute-of-day table used by checkTimers().
+     * Must be called whenever the timers in the configuration change.
+     */
+    public void compileTimers() {
+        Terrarium.configVersion.incrementAndGet();
+        Timer[] timers = Terrarium.cfg.getTimers();
+        Terrarium.timerSchedule = new TimerSchedule(timers == null ? new Timer[0] : timers,
+                Terrarium.cfg.getDeviceList());
     }
 
     public void initTimers(LocalDateTime now) {
@@ -388,43 +498,45 @@ public class Terrarium {
      * because of a timer then the rule should not interfere, so the rule should be
      * deactivated until the device is switched off by the timer.
      * Then the rule should be activated again.
+     *
+     * Only the timer events of the current minute are visited, see {@link TimerSchedule}.
      */
     public void checkTimers() {
         Util.println("Timers are checked. " + ruleState.toString());
-        for (Timer t : Terrarium.cfg.getTimers()) {
-            if (t.getRepeat() != 0) { // Timer is not active
-                if (t.getPeriod() == 0) { // Timer has an on and off
-                    int timerMinutesOn = (t.getHour_on() * 60) + t.getMinute_on();
-                    int timerMinutesOff = (t.getHour_off() * 60) + t.getMinute_off();
-                    int curMinutes = (now.getHour() * 60) + now.getMinute();
-                    if (curMinutes == timerMinutesOn) {
-                        Util.println("Timer for '" + t.getDevice() + "' started: controlled by " + getDeviceState(t.getDevice()).getControlledBy());
-                        if (getDeviceState(t.getDevice()).getControlledBy() == DeviceState.NOT_CONTROLLED ||
-                                getDeviceState(t.getDevice()).getControlledBy() > 0 // controlled by any temperature rule
-                        ) {
-                            setDeviceOn(t.getDevice(), DeviceState.ENDTIME_INDEFINITE, DeviceState.CONTROLLED_BY_TIMER);
-                            if (t.getDevice().equalsIgnoreCase("mist")) {
-                                setDeviceOff("fan_in", DeviceState.CONTROLLED_BY_MIST_RULE);
-                                setDeviceOff("fan_out", DeviceState.CONTROLLED_BY_MIST_RULE);
-                            }
-                        }
-                    } else if ((timerMinutesOff != 0) && (curMinutes == timerMinutesOff)) {
-                        if (isDeviceOn(t.getDevice())
-                                && getDeviceState(t.getDevice()).getControlledBy() == DeviceState.CONTROLLED_BY_TIMER) {
-                            setDeviceOff(t.getDevice(), DeviceState.NOT_CONTROLLED);
-                        }
-                    }
-                } else { // Timer has an on and period
-                    int timerMinutesOn = (t.getHour_on() * 60) + t.getMinute_on();
-                    int curMinutes = (now.getHour() * 60) + now.getMinute();
-                    long endtime = Util.now(now) + t.getPeriod();
-                    if (curMinutes == timerMinutesOn) {
-                        if (!isDeviceOn(t.getDevice())
-                                && getDeviceState(t.getDevice()).getControlledBy() == DeviceState.NOT_CONTROLLED) {
-                            setDeviceOn(t.getDevice(), endtime, DeviceState.CONTROLLED_BY_TIMER);
-                        }
+        TimerSchedule schedule = Terrarium.timerSchedule;
+        if (schedule == null) {
+            compileTimers();
+            schedule = Terrarium.timerSchedule;
+        }
+        int curMinutes = (now.getHour() * 60) + now.getMinute();
+        for (int e = schedule.getStart(curMinutes); e < schedule.getEnd(curMinutes); e++) {
+            int id = schedule.getDeviceIndex(e);
+            int controlledBy = Terrarium.deviceTable.getControlledBy(id);
+            switch (schedule.getKind(e)) {
+            case TimerSchedule.EVENT_ON: // Timer has an on and off
+                Util.println("Timer for '" + schedule.getDevice(e) + "' started: controlled by " + controlledBy);
+                if (controlledBy == DeviceState.NOT_CONTROLLED ||
+                        controlledBy > 0 // controlled by any temperature rule
+                ) {
+                    setDeviceOn(id, DeviceState.ENDTIME_INDEFINITE, DeviceState.CONTROLLED_BY_TIMER);
+                    if (schedule.isMist(e)) {
+                        setDeviceOff(Terrarium.idFanIn, DeviceState.CONTROLLED_BY_MIST_RULE);
+                        setDeviceOff(Terrarium.idFanOut, DeviceState.CONTROLLED_BY_MIST_RULE);
                     }
                 }
+                break;
+            case TimerSchedule.EVENT_OFF:
+                if (isDeviceOn(id) && controlledBy == DeviceState.CONTROLLED_BY_TIMER) {
+                    setDeviceOff(id, DeviceState.NOT_CONTROLLED);
+                }
+                break;
+            case TimerSchedule.EVENT_ON_FOR_PERIOD: // Timer has an on and period
+                if (!isDeviceOn(id) && controlledBy == DeviceState.NOT_CONTROLLED) {
+                    setDeviceOn(id, Util.now(now) + schedule.getPeriod(e), DeviceState.CONTROLLED_BY_TIMER);
+                }
+                break;
+            default:
+                break;
             }
         }
     }
@@ -439,6 +551,16 @@ public class Terrarium {
 
     public void replaceRule(int nr, TemperatureRule rule) {
         Terrarium.cfg.setRule(nr - 1, rule);
+        compileRules();
+    }
+
+    /**
+     * Compile the temperature rules into the plan used by checkTemperatureRules().
+     * Must be called whenever the rules in the configuration change.
+     */
+    public void compileRules() {
+        Terrarium.configVersion.incrementAndGet();
+        Terrarium.rulePlan = new TemperatureRulePlan(Terrarium.cfg.getRules(), Terrarium.cfg.getDeviceList());
     }
 
     public void initRules() {
@@ -450,112 +572,66 @@ public class Terrarium {
      * These need to be executed every minute.
      */
     public void checkTemperatureRules() {
-        Util.println("Temperature rules are checked. " + ruleState.toString());
-        long endtime = 0L;
-        if (ruleState.getRulenr() != RuleState.SPRAYER_RULENR) { // only if the sprayer rule is not active
-            for (int rulenr = 0; rulenr < Terrarium.cfg.getRules().length; rulenr++) {
-                TemperatureRule r = Terrarium.cfg.getRules()[rulenr];
-                if (r.active(now) == 0) { // Is this temperature rule now valid?
-                    Util.println("Rule " + (rulenr + 1) + " Threshold=" + r.getTemp_threshold() +
-                    " Ideal=" + r.getTemp_ideal() + " Delay=" + r.getDelay());
-                    // Temperature below threshold
-                    if (r.getTemp_threshold() < 0) {
-                        if (getTerrariumTemperature() < -r.getTemp_threshold()) {
-                            ruleState.setRulenr(rulenr + 1);
-                            long tm = Util.now(now);
-                            if (ruleState.getDelayed() == 0) { // no delay so exectute actions
-                                Util.println("Actions executed");
-                                for (Action a : r.getActions()) {
-                                    if (!a.getDevice().equalsIgnoreCase("no device")) {
-                                        if (getDeviceState(a.getDevice()).getControlledBy() == DeviceState.NOT_CONTROLLED) {
-                                            endtime = a.getOn_period() > 0 ? Util.now(now) + a.getOn_period()
-                                                    : a.getOn_period();
-                                            setDeviceOn(a.getDevice(), endtime, rulenr + 1);
-                                            ruleState.addDevice(a.getDevice());
-                                        }
-                                    }
-                                }
-                                // Start delay if needed
-                                if (r.getDelay() > 0) {
-                                    ruleState.setDelayed(tm + r.getDelay());
-                                    Util.println("Delay started " + Util.cvtPeriodToString(ruleState.getDelayed()));
-                                }
-                            } else if (tm >= ruleState.getDelayed()) {
-                                Util.println("Delay is ended");
-                                ruleState.setDelayed(0);
-                            } else {
-                                Util.println("In delay...");
-                            }
-                            break;
-                        }
-                        if (getTerrariumTemperature() == r.getTemp_ideal()) {
-                            // Terrarium temperature has reached ideal temperature, so switch all related
-                            // devices off
-                            for (Action a : r.getActions()) {
-                                if (!a.getDevice().equalsIgnoreCase("no device") && isDeviceOn(a.getDevice())
-                                        && (Terrarium.devStates.get(a.getDevice()).getControlledBy() == (rulenr + 1))) {
-                                    setDeviceOff(a.getDevice(), DeviceState.NOT_CONTROLLED);
-                                }
-                            }
-                            ruleState.reset();
-                        }
-                        // Temperature above threshold
-                    } else if (r.getTemp_threshold() > 0) {
-                        Util.println("getTerrariumTemperature()=" + getTerrariumTemperature() + " r.getTemp_threshold()=" + r.getTemp_threshold());
-                        if (getTerrariumTemperature() > r.getTemp_threshold()) {
-                            ruleState.setRulenr(rulenr + 1);
-                            long tm = Util.now(now);
-                            Util.println("temprulestate.delayed=" + ruleState.getDelayed());
-                            if (ruleState.getDelayed() == 0) { // no delay so exectute actions
-                                // System.out.println("Actions executed");
-                                for (Action a : r.getActions()) {
-                                    if (!a.getDevice().equalsIgnoreCase("no device")) {
-                                        Util.println("checkTemperatureRules(): Device " + a.getDevice() + " controlled by " + getDeviceState(a.getDevice()).getControlledBy());
-                                        if (getDeviceState(a.getDevice())
-                                                .getControlledBy() == DeviceState.NOT_CONTROLLED) {
-                                            endtime = a.getOn_period() > 0 ? Util.now(now) + a.getOn_period()
-                                                    : a.getOn_period();
-                                            setDeviceOn(a.getDevice(), endtime, rulenr + 1);
-                                            ruleState.addDevice(a.getDevice());
-                                        }
-                                    }
-                                }
-                                // Start delay if needed
-                                if (r.getDelay() > 0) {
-                                    ruleState.setDelayed(tm + r.getDelay());
-                                    Util.println("Delayed " + Util.cvtPeriodToString(ruleState.getDelayed()));
-                                }
-                            } else if (tm >= ruleState.getDelayed()) {
-                                Util.println("Delay is finished");
-                                ruleState.setDelayed(0);
-                            } else {
-                                Util.println("In delay...");
-                            }
-                            break;
-                        }
-                        if (getTerrariumTemperature() == r.getTemp_ideal()) {
-                            // Terrarium temperature has reached ideal temperature, so switch all related
-                            // devices off
-                            for (Action a : r.getActions()) {
-                                if (!a.getDevice().equalsIgnoreCase("no device") && isDeviceOn(a.getDevice())
-                                        && (Terrarium.devStates.get(a.getDevice()).getControlledBy() == rulenr + 1)) {
-                                    setDeviceOff(a.getDevice(), DeviceState.NOT_CONTROLLED);
-                                }
+        if (TCU.DEBUG_ON) {
+            Util.println("Temperature rules are checked. " + ruleState.toString());
+        }
+        if (ruleState.getRulenr() == RuleState.SPRAYER_RULENR) { // only if the sprayer rule is not active
+            return;
+        }
+        TemperatureRulePlan plan = Terrarium.rulePlan;
+        if (plan == null) {
+            compileRules();
+            plan = Terrarium.rulePlan;
+        }
+        int curMinutes = (now.getHour() * 60) + now.getMinute();
+        int temperature = getTerrariumTemperature();
+        long tm = Util.now(now);
+        for (int rulenr = 0; rulenr < plan.size(); rulenr++) {
+            if (plan.isValid(rulenr, curMinutes)) { // Is this temperature rule now valid?
+                if (plan.getDirection(rulenr) == TemperatureRulePlan.NONE) {
+                    continue;
+                }
+                // Temperature below or above threshold
+                if (plan.isTriggered(rulenr, temperature)) {
+                    ruleState.setRulenr(rulenr + 1);
+                    if (ruleState.getDelayed() == 0) { // no delay so exectute actions
+                        for (int a = 0; a < plan.getNrOfActions(rulenr); a++) {
+                            int id = plan.getDeviceIndex(rulenr, a);
+                            if ((id >= 0) && (Terrarium.deviceTable.getControlledBy(id) == DeviceState.NOT_CONTROLLED)) {
+                                int onPeriod = plan.getOnPeriod(rulenr, a);
+                                long endtime = onPeriod > 0 ? tm + onPeriod : onPeriod;
+                                setDeviceOn(id, endtime, rulenr + 1);
+                                ruleState.addDevice(plan.getDevice(rulenr, a));
                             }
-                            ruleState.reset();
                         }
-                    }
-                } else if (r.getActive().equalsIgnoreCase("yes")) { // Rule is not valid anymore
-                    for (Action a : r.getActions()) {
-                        if (!a.getDevice().equalsIgnoreCase("no device") &&
-                                isDeviceOn(a.getDevice()) &&
-                                Terrarium.devStates.get(a.getDevice()).getControlledBy() == rulenr + 1) {
-                            Util.println("checkTemperatureRules() - rule invalid : " + r.active(now) + "->" + now.toString());
-                            setDeviceOff(a.getDevice(), DeviceState.NOT_CONTROLLED);
+                        // Start delay if needed
+                        if (plan.getDelay(rulenr) > 0) {
+                            ruleState.setDelayed(tm + plan.getDelay(rulenr));
                         }
+                    } else if (tm >= ruleState.getDelayed()) {
+                        // Delay is ended
+                        ruleState.setDelayed(0);
                     }
+                    break;
+                }
+                if (temperature == plan.getIdeal(rulenr)) {
+                    // Terrarium temperature has reached ideal temperature, so switch all related
+                    // devices off
+                    switchOffRuleDevices(plan, rulenr);
                     ruleState.reset();
                 }
+            } else if (plan.isActive(rulenr)) { // Rule is not valid anymore
+                switchOffRuleDevices(plan, rulenr);
+                ruleState.reset();
+            }
+        }
+    }
+
+    private void switchOffRuleDevices(TemperatureRulePlan plan, int rulenr) {
+        for (int a = 0; a < plan.getNrOfActions(rulenr); a++) {
+            int id = plan.getDeviceIndex(rulenr, a);
+            if ((id >= 0) && isDeviceOn(id) && (Terrarium.deviceTable.getControlledBy(id) == (rulenr + 1))) {
+                setDeviceOff(id, DeviceState.NOT_CONTROLLED);
             }
         }
     }
@@ -566,6 +642,15 @@ public class Terrarium {
 
     public void setSprayerRule(SprayerRule sprayerRule) {
         Terrarium.cfg.setSprayerRule(sprayerRule);
+        Terrarium.configVersion.incrementAndGet();
+    }
+
+    /**
+     * @return the version of the configuration (timers, rules and devices); it changes on every change
+     *         of the configuration, so it can be used as the ETag of the configuration endpoints
+     */
+    public static long getConfigVersion() {
+        return Terrarium.configVersion.get();
     }
 
     /**
@@ -608,21 +693,41 @@ public class Terrarium {
      ******************************************************/
 
     public void initDeviceState() {
-        // Initialize device states
-        for (int i = 0; i < NR_OF_DEVICES; i++) {
-            String nm = Terrarium.cfg.getDeviceList()[i];
-            Terrarium.devStates.put(nm, new DeviceState(nm));
+        // Initialize device states, the id of a device is its index in the device list
+        Terrarium.deviceTable = new DeviceStateTable(Terrarium.cfg.getDeviceList());
+        Map<String, DeviceState> states = new HashMap<>();
+        Map<String, Integer> ids = new HashMap<>();
+        for (int id = 0; id < Terrarium.deviceTable.size(); id++) {
+            String nm = Terrarium.deviceTable.getName(id);
+            states.put(nm, new DeviceState(Terrarium.deviceTable, id));
+            ids.put(nm, id);
         }
+        Terrarium.devStates = states;
+        Terrarium.deviceIds = ids;
+        Terrarium.idSprayer = getDeviceIndex("sprayer");
+        Terrarium.idMist = getDeviceIndex("mist");
+        Terrarium.idFanIn = getDeviceIndex("fan_in");
+        Terrarium.idFanOut = getDeviceIndex("fan_out");
+        Terrarium.deviceEndtimes = new DeviceTimerWheel(Terrarium.deviceTable.size());
         updateLifecycle();
     }
 
-    Device getDevice(String device) {
-        for (Device d : Terrarium.devices) {
-            if (d.getName().equalsIgnoreCase(device)) {
-                return d;
+    private void registerDevices(List<Device> devs) {
+        Device[] byId = new Device[Terrarium.cfg.getDeviceList().length];
+        for (Device d : devs) {
+            int id = getDeviceIndex(d.getName());
+            if (id >= 0) {
+                byId[id] = d;
             }
         }
-        return null;
+        Terrarium.devices = devs;
+        Terrarium.deviceById = byId;
+        Terrarium.configVersion.incrementAndGet();
+    }
+
+    Device getDevice(String device) {
+        int id = getDeviceIndex(device);
+        return id < 0 ? null : Terrarium.deviceById[id];
     }
 
     DeviceState getDeviceState(String device) {
@@ -647,7 +752,11 @@ public class Terrarium {
     }
 
     public boolean isDeviceOn(String device) {
-        return Terrarium.devStates.get(device).getOnPeriod() != 0L;
+        return isDeviceOn(deviceId(device));
+    }
+
+    public boolean isDeviceOn(int id) {
+        return Terrarium.deviceTable.isOn(id);
     }
 
     /**
@@ -657,9 +766,36 @@ public class Terrarium {
      *                5=Manual
      */
     public void setDeviceOn(String device, long endtime, int controlledBy) {
-        getDevice(device).switchOn();
-        Terrarium.devStates.get(device).setOnPeriod(endtime);
-        Terrarium.devStates.get(device).setControlledBy(controlledBy);
+        setDeviceOn(deviceId(device), endtime, controlledBy);
+    }
+
+    /**
+     * @param id      device id, see {@link #getDeviceIndex(String)}
+     * @param endtime in Epoch seconds or -1 or -2
+     * @param ruleId  1=Temperature rule, 2=Sprayer rule, 3=Mist rule, 4=Timer,
+     *                5=Manual
+     */
+    public void setDeviceOn(int id, long endtime, int controlledBy) {
+        String device = Terrarium.deviceTable.getName(id);
+        boolean sprayerRule = (endtime > 0L) && (id == Terrarium.idSprayer) &&
+                (controlledBy == DeviceState.CONTROLLED_BY_TIMER || controlledBy == DeviceState.NOT_CONTROLLED);
+        long prevState;
+        long newState;
+        // GPIO, state table, switch-off wheel and rule state change as one step for all threads
+        synchronized (Terrarium.CONTROL_LOCK) {
+            switchOn(id);
+            prevState = Terrarium.deviceTable.switchState(id, endtime, controlledBy);
+            newState = Terrarium.deviceTable.getState(id);
+            scheduleSwitchOff(id, endtime);
+            if (sprayerRule) {
+                ruleState.setRulenr(RuleState.SPRAYER_RULENR);
+                // Set sprayerRuleDelayEndtime = start time in minutes + delay in minutes
+                ruleState.setDelayed(Util.now(now) + Terrarium.cfg.getSprayerRule().getDelay() * 60);
+                ruleState.addDevice("fan_in");
+                ruleState.addDevice("fan_out");
+            }
+        }
+        fireDeviceChanged(id, prevState, newState);
         if (endtime > 0L) {
             Util.println("Device " + device + " is switched on till " +
             Util.cvtTimeToString(endtime) +
@@ -667,17 +803,6 @@ public class Terrarium {
             DeviceState.getControlledByText(controlledBy) : ""));
             String dt = Util.ofEpochSecond(endtime).format(dtfmt);
             Util.traceState(traceFolder + "/" + traceStateFilename, now, "%s 1 %s %d", device, dt, controlledBy);
-            if (device.equalsIgnoreCase("sprayer") && (controlledBy == DeviceState.CONTROLLED_BY_TIMER ||
-                    controlledBy == DeviceState.NOT_CONTROLLED)) {
-                ruleState.setRulenr(RuleState.SPRAYER_RULENR);
-                // Set sprayerRuleDelayEndtime = start time in minutes + delay in minutes
-                ruleState.setDelayed(Util.now(now) + Terrarium.cfg.getSprayerRule().getDelay() * 60);
-                // and switch fan_out and fan_in off and put them under control of the Sprayer Rule
-                setDeviceOff("fan_in", DeviceState.CONTROLLED_BY_SPRAYER_RULE);
-                ruleState.addDevice("fan_in");
-                setDeviceOff("fan_out", DeviceState.CONTROLLED_BY_SPRAYER_RULE);
-                ruleState.addDevice("fan_out");
-            }
         } else {
             Util.println("Device " + device + " is switched on till " +
             DeviceState.getEndtimeText(endtime) +
@@ -685,6 +810,11 @@ public class Terrarium {
             DeviceState.getControlledByText(controlledBy) : ""));
             Util.traceState(traceFolder + "/" + traceStateFilename, now, "%s 1 %d %d", device, endtime, controlledBy);
         }
+        if (sprayerRule) {
+            // and switch fan_out and fan_in off and put them under control of the Sprayer Rule
+            setDeviceOff(Terrarium.idFanIn, DeviceState.CONTROLLED_BY_SPRAYER_RULE);
+            setDeviceOff(Terrarium.idFanOut, DeviceState.CONTROLLED_BY_SPRAYER_RULE);
+        }
     }
 
     /**
@@ -692,81 +822,229 @@ public class Terrarium {
      * @param controlledBy See DeviceState
      */
     public void setDeviceOff(String device, int controlledBy) {
+        setDeviceOff(deviceId(device), controlledBy);
+    }
+
+    /**
+     * @param id           device id, see {@link #getDeviceIndex(String)}
+     * @param controlledBy See DeviceState
+     */
+    public void setDeviceOff(int id, int controlledBy) {
+        String device = Terrarium.deviceTable.getName(id);
+        long prevState;
+        long newState;
+        // GPIO, state table and switch-off wheel change as one step for all threads
+        synchronized (Terrarium.CONTROL_LOCK) {
+            switchOff(id);
+            prevState = Terrarium.deviceTable.switchState(id, DeviceState.ENDTIME_OFF, controlledBy);
+            newState = Terrarium.deviceTable.getState(id);
+            scheduleSwitchOff(id, DeviceState.ENDTIME_OFF);
+        }
         Util.println("Device " + device + " is switched off" +
         (controlledBy != 0 ? " and is controlled by " +
         DeviceState.getControlledByText(controlledBy) : ""));
-        getDevice(device).switchOff();
-        Terrarium.devStates.get(device).setOnPeriod(DeviceState.ENDTIME_OFF);
-        Terrarium.devStates.get(device).setControlledBy(controlledBy);
+        fireDeviceChanged(id, prevState, newState);
         Util.traceState(traceFolder + "/" + traceStateFilename, now, "%s 0 %d", device, controlledBy);
-        if (device.equalsIgnoreCase("mist")) {
-            setDeviceOff("fan_in", DeviceState.NOT_CONTROLLED);
-            setDeviceOff("fan_out", DeviceState.NOT_CONTROLLED);
+        if (id == Terrarium.idMist) {
+            setDeviceOff(Terrarium.idFanIn, DeviceState.NOT_CONTROLLED);
+            setDeviceOff(Terrarium.idFanOut, DeviceState.NOT_CONTROLLED);
+        }
+    }
+
+    /****************************************************
+     * Listeners
+     ******************************************************/
+
+    public static void addListener(TerrariumListener listener) {
+        Terrarium.listeners.add(listener);
+    }
+
+    public static void removeListener(TerrariumListener listener) {
+        Terrarium.listeners.remove(listener);
+    }
+
+    private void fireDeviceChanged(int id, long prevState, long newState) {
+        if (!Terrarium.listeners.isEmpty() && (prevState != newState)) {
+            DeviceState state = new DeviceState(Terrarium.deviceTable, id);
+            for (TerrariumListener l : Terrarium.listeners) {
+                l.deviceChanged(state);
+            }
+        }
+    }
+
+    private void sensorsChanged() {
+        this.sensorsJson = Jsonbs.PRETTY.toJson(this.sensors).getBytes(StandardCharsets.UTF_8);
+        fireSensorsRead();
+    }
+
+    private void fireSensorsRead() {
+        if (!Terrarium.listeners.isEmpty()) {
+            for (TerrariumListener l : Terrarium.listeners) {
+                l.sensorsRead(getRoomTemperature(), getTerrariumTemperature(), getRoomHumidity(), getCpuTemperature());
+            }
+        }
+    }
+
+    private void switchOn(int id) {
+        if ((id < Terrarium.deviceById.length) && (Terrarium.deviceById[id] != null)) {
+            Terrarium.deviceById[id].switchOn();
+        }
+    }
+
+    private void switchOff(int id) {
+        if ((id < Terrarium.deviceById.length) && (Terrarium.deviceById[id] != null)) {
+            Terrarium.deviceById[id].switchOff();
         }
     }
 
     public void setDeviceManualOn(String device) {
-        Terrarium.devStates.get(device).setManual(true);
+        Terrarium.deviceTable.setManual(deviceId(device), true);
     }
 
     public void setDeviceManualOff(String device) {
-        Terrarium.devStates.get(device).setManual(false);
+        Terrarium.deviceTable.setManual(deviceId(device), false);
     }
 
     public void setDeviceLifecycle(String device, int value) {
-        Terrarium.devStates.get(device).setLifetime(value);
+        Terrarium.deviceTable.setLifetime(deviceId(device), value);
     }
 
     public void decreaseLifetime(int nrOfHours) {
-        for (Device d : Terrarium.devices) {
-            if (d.hasLifetime() && Terrarium.getInstance().isDeviceOn(d.getName())) {
-                Terrarium.devStates.get(d.getName()).decreaseLifetime(nrOfHours);
+        for (int id = 0; id < Terrarium.deviceById.length; id++) {
+            Device d = Terrarium.deviceById[id];
+            if ((d != null) && d.hasLifetime() && isDeviceOn(id)) {
+                Terrarium.deviceTable.decreaseLifetime(id, nrOfHours);
                 saveLifecycleCounters();
             }
         }
     }
 
     public String getState() {
-        Terrarium.getInstance().updateLifecycle();
-        String json = "{\"trace\":\"" + (this.traceOn ? "on" : "off") + "\",\"state\": [";
-        for (int i = 0; i < Terrarium.devStates.size(); i++) {
-            String devnm = Terrarium.devices.get(i).getName();
-            json += Terrarium.devStates.get(devnm).toJson() + ",";
+        return new String(getStateBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The state of all devices as JSON. It is only rebuilt when a device state or the trace has changed
+     * since the last call, otherwise the cached bytes are returned. The bytes must not be modified.
+     */
+    public byte[] getStateBytes() {
+        return currentState().json;
+    }
+
+    /**
+     * @return the version of the state, it changes whenever the content of getStateBytes() changes
+     */
+    public long getStateVersion() {
+        return currentState().seq;
+    }
+
+    private StateSnapshot currentState() {
+        StateSnapshot snapshot = Terrarium.stateSnapshot;
+        DeviceStateTable table = Terrarium.deviceTable;
+        // Read the version before building, a change during the build then causes a rebuild on the next call
+        long version = table.getVersion();
+        boolean trace = this.traceOn;
+        if ((snapshot == null) || (snapshot.table != table) || (snapshot.version != version) || (snapshot.traceOn != trace)) {
+            StringBuilder sb = new StringBuilder(128 + (table.size() * 128));
+            sb.append("{\"trace\":\"").append(trace ? "on" : "off").append("\",\"state\": [");
+            for (int id = 0; id < table.size(); id++) {
+                if (id > 0) {
+                    sb.append(',');
+                }
+                sb.append(new DeviceState(table, id).toJson());
+            }
+            sb.append("]}");
+            snapshot = new StateSnapshot(Terrarium.stateSeq.incrementAndGet(), table, version, trace,
+                    sb.toString().getBytes(StandardCharsets.UTF_8));
+            Terrarium.stateSnapshot = snapshot;
         }
-        json = json.substring(0, json.length() - 1) + "]}";
-        return json;
+        return snapshot;
     }
 
+    private static final class PropertiesSnapshot {
+        final List<Device> devices;
+        final Timer[] timers;
+        final String json;
+
+        PropertiesSnapshot(List<Device> devices, Timer[] timers, String json) {
+            this.devices = devices;
+            this.timers = timers;
+            this.json = json;
+        }
+    }
+
+    private static final class StateSnapshot {
+        final long seq;
+        final DeviceStateTable table;
+        final long version;
+        final boolean traceOn;
+        final byte[] json;
+
+        StateSnapshot(long seq, DeviceStateTable table, long version, boolean traceOn, byte[] json) {
+            this.seq = seq;
+            this.table = table;
+            this.version = version;
+            this.traceOn = traceOn;
+            this.json = json;
+        }
+    }
+
+    /**
+     * @return the id of the device: its index in the device list, or -1 when it does not exist
+     */
     public int getDeviceIndex(String device) {
-        int ix = -1;
-        for (int i = 0; i < NR_OF_DEVICES; i++) {
+        Integer id = Terrarium.deviceIds.get(device);
+        if (id != null) {
+            return id;
+        }
+        for (int i = 0; i < Terrarium.cfg.getDeviceList().length; i++) {
             if (Terrarium.cfg.getDeviceList()[i].equalsIgnoreCase(device)) {
-                ix = i;
-                break;
+                return i;
             }
         }
-        return ix;
+        return -1;
+    }
+
+    private int deviceId(String device) {
+        int id = getDeviceIndex(device);
+        if (id < 0) {
+            throw new IllegalArgumentException("Device '" + device + "' does not exist.");
+        }
+        return id;
     }
 
     /**
      * Check if a device needs to be switched off when it has a onPeriod > 0
      * This check needs to be done every second since the onPeriod is defined in
      * Epoch-seconds.
+     * Only the devices whose end time has passed are visited, see {@link DeviceTimerWheel}.
      */
     public void checkDevices() {
-        for (String devnm : Terrarium.devStates.keySet()) {
-            DeviceState d = Terrarium.devStates.get(devnm);
-            if (d.getOnPeriod() > 0) {
-                // Device has an end time defined
-                Util.println("now=" + Util.now(now) + " onPeriod=" + d.getOnPeriod());
-                if (Util.now(now) >= Math.abs(d.getOnPeriod())) {
-                    Util.println("rule id=" + ruleState.getRulenr() + " device=" + d.getName());
-                    setDeviceOff(d.getName(), DeviceState.NOT_CONTROLLED);
-                }
+        long tm = Util.now(now);
+        int n = Terrarium.deviceEndtimes.advance(tm);
+        int[] expired = Terrarium.deviceEndtimes.getExpired();
+        for (int i = 0; i < n; i++) {
+            int id = expired[i];
+            long endtime = Terrarium.deviceTable.getEndtime(id);
+            // The device can already be switched off by a previous one (e.g. mist switches off the fans)
+            if ((endtime > 0) && (tm >= endtime)) {
+                Util.println("rule id=" + ruleState.getRulenr() + " device=" + Terrarium.deviceTable.getName(id));
+                setDeviceOff(id, DeviceState.NOT_CONTROLLED);
             }
         }
     }
 
+    /**
+     * Keep the index of pending switch-offs in line with the end time of a device.
+     */
+    private void scheduleSwitchOff(int id, long endtime) {
+        if (endtime > 0L) {
+            Terrarium.deviceEndtimes.schedule(id, endtime);
+        } else {
+            Terrarium.deviceEndtimes.cancel(id);
+        }
+    }
+
     public Map<String, Pin> getDevicePin() {
         return devicePin;
     }
@@ -780,15 +1058,10 @@ public class Terrarium {
     }
 
     public void setDevices(List<Device> devices) {
-        Terrarium.devices = devices;
+        registerDevices(devices);
     }
 
     public Map<String, DeviceState> getDevStates() {
-        updateLifecycle();
         return devStates;
     }
-
-    public void setDevStates(Map<String, DeviceState> devStates) {
-        Terrarium.devStates = devStates;
-    }
 }
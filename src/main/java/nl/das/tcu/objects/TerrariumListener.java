@@ -0,0 +1,33 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+/**
+ * Listener for the changes in the terrarium, see {@link Terrarium#addListener(TerrariumListener)}.
+ *
+ * The methods are called on the thread that made the change, often the control loop,
+ * so they must return quickly and must not block.
+ */
+public interface TerrariumListener {
+
+	/**
+	 * A device has been switched on or off, or its end time or controller has changed.
+	 *
+	 * @param state the (live) state of the device
+	 */
+	default void deviceChanged(DeviceState state) {
+	}
+
+	/**
+	 * New sensor values have been read.
+	 */
+	default void sensorsRead(int roomTemperature, int terrariumTemperature, int roomHumidity, int cpuTemperature) {
+	}
+}
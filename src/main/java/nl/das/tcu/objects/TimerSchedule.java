@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.objects;
+
+/**
+ * The active timers compiled into a minute-of-day event table.
+ *
+ * The events of minute m are at the indices getStart(m) until getEnd(m), in the order of
+ * the timers in the configuration. The table is immutable; it is rebuilt when the timers change.
+ */
+public class TimerSchedule {
+
+	public static final int MINUTES_PER_DAY = 1440;
+
+	/** Switch the device on until the off-time of the timer */
+	public static final int EVENT_ON = 1;
+	/** Switch the device off */
+	public static final int EVENT_OFF = 2;
+	/** Switch the device on for the period of the timer */
+	public static final int EVENT_ON_FOR_PERIOD = 3;
+
+	private final int[] slotStart = new int[MINUTES_PER_DAY + 1];
+	private final int[] kind;
+	private final String[] device;
+	private final int[] deviceIndex;
+	private final int[] period;
+	private final boolean[] mist;
+
+	/**
+	 * @param timers     the timers of the configuration
+	 * @param deviceList the device names, a device id is its index in this list
+	 */
+	public TimerSchedule(Timer[] timers, String[] deviceList) {
+		int[] onMinute = new int[timers.length];
+		int[] offMinute = new int[timers.length];
+		int[] count = new int[MINUTES_PER_DAY];
+		int nrOfEvents = 0;
+		// First pass: count the events per minute
+		for (int i = 0; i < timers.length; i++) {
+			Timer t = timers[i];
+			onMinute[i] = -1;
+			offMinute[i] = -1;
+			if ((t == null) || (t.getRepeat() == 0)) { // Timer is not active
+				continue;
+			}
+			if (indexOf(deviceList, t.getDevice()) < 0) { // Timer of an unknown device
+				continue;
+			}
+			int on = (t.getHour_on() * 60) + t.getMinute_on();
+			if ((on >= 0) && (on < MINUTES_PER_DAY)) {
+				onMinute[i] = on;
+				count[on]++;
+				nrOfEvents++;
+			}
+			if (t.getPeriod() == 0) { // Timer has an on and off
+				int off = (t.getHour_off() * 60) + t.getMinute_off();
+				// An off-time of 00:00 means no off-time, and on the on-time the device is switched on
+				if ((off > 0) && (off < MINUTES_PER_DAY) && (off != on)) {
+					offMinute[i] = off;
+					count[off]++;
+					nrOfEvents++;
+				}
+			}
+		}
+		for (int m = 0; m < MINUTES_PER_DAY; m++) {
+			this.slotStart[m + 1] = this.slotStart[m] + count[m];
+		}
+		this.kind = new int[nrOfEvents];
+		this.device = new String[nrOfEvents];
+		this.deviceIndex = new int[nrOfEvents];
+		this.period = new int[nrOfEvents];
+		this.mist = new boolean[nrOfEvents];
+		// Second pass: fill the slots in timer order
+		int[] fill = new int[MINUTES_PER_DAY];
+		System.arraycopy(this.slotStart, 0, fill, 0, MINUTES_PER_DAY);
+		for (int i = 0; i < timers.length; i++) {
+			Timer t = timers[i];
+			if (onMinute[i] >= 0) {
+				int e = fill[onMinute[i]]++;
+				this.kind[e] = t.getPeriod() == 0 ? EVENT_ON : EVENT_ON_FOR_PERIOD;
+				this.device[e] = t.getDevice();
+				this.deviceIndex[e] = indexOf(deviceList, t.getDevice());
+				this.period[e] = t.getPeriod();
+				this.mist[e] = t.getDevice().equalsIgnoreCase("mist");
+			}
+			if (offMinute[i] >= 0) {
+				int e = fill[offMinute[i]]++;
+				this.kind[e] = EVENT_OFF;
+				this.device[e] = t.getDevice();
+				this.deviceIndex[e] = indexOf(deviceList, t.getDevice());
+			}
+		}
+	}
+
+	private static int indexOf(String[] deviceList, String device) {
+		if ((deviceList != null) && (device != null)) {
+			for (int i = 0; i < deviceList.length; i++) {
+				if (deviceList[i].equalsIgnoreCase(device)) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public int getStart(int minuteOfDay) {
+		return this.slotStart[minuteOfDay];
+	}
+
+	public int getEnd(int minuteOfDay) {
+		return this.slotStart[minuteOfDay + 1];
+	}
+
+	public int getKind(int event) {
+		return this.kind[event];
+	}
+
+	public String getDevice(int event) {
+		return this.device[event];
+	}
+
+	public int getDeviceIndex(int event) {
+		return this.deviceIndex[event];
+	}
+
+	public int getPeriod(int event) {
+		return this.period[event];
+	}
+
+	public boolean isMist(int event) {
+		return this.mist[event];
+	}
+
+	public int size() {
+		return this.kind.length;
+	}
+}
@@ -9,18 +9,32 @@
 
 package nl.das.tcu.rest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.bluetooth.DiscoveryAgent;
 import javax.bluetooth.LocalDevice;
@@ -28,19 +42,21 @@ import javax.bluetooth.RemoteDevice;
 import javax.bluetooth.UUID;
 import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
 import javax.json.bind.JsonbException;
 import javax.microedition.io.Connector;
 import javax.microedition.io.StreamConnection;
 import javax.microedition.io.StreamConnectionNotifier;
 
+import nl.das.tcu.Jsonbs;
 import nl.das.tcu.Util;
 import nl.das.tcu.objects.DeviceState;
+import nl.das.tcu.objects.SensorStore;
 import nl.das.tcu.objects.SprayerRule;
+import nl.das.tcu.objects.TemperatureHistory;
 import nl.das.tcu.objects.TemperatureRule;
 import nl.das.tcu.objects.Terrarium;
 import nl.das.tcu.objects.Timer;
@@ -50,10 +66,49 @@ import nl.das.tcu.objects.Timer;
  */
 public class BTServer {
 
+	private static final int COMPRESS_BUFFER_SIZE = 4096;
+
+	public static final int DEFAULT_MAX_SESSIONS = 3;
+	public static final int DEFAULT_IDLE_TIMEOUT = 600;
+	private static final long WATCHDOG_PERIOD = 10;
+	private static final int COMMAND_THREADS = 3;
+
+	/** Commands that change the Terrarium, they are executed under the lock of the control loop */
+	private static final Set<String> MUTATING_COMMANDS = Set.of("setSensors", "setTestOff", "setDeviceOn", "setDeviceOff",
+			"setDeviceOnFor", "setDeviceManualOn", "setDeviceManualOff", "setLifecycleCounter", "setTraceOn", "setTraceOff",
+			"replaceTimers", "saveTemperatureRule", "setSprayerRule");
+
 	private StreamConnectionNotifier scn;
-	private StreamConnection sc;
+	private final Semaphore sessions;
+	private final long idleTimeoutMillis;
+	private final Set<Session> active = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger sessionNr = new AtomicInteger();
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "BTSession-" + this.sessionNr.incrementAndGet());
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	// Executes the commands of the pipelined sessions
+	private final ExecutorService commandExecutor = Executors.newFixedThreadPool(COMMAND_THREADS, r -> {
+		Thread t = new Thread(r, "BTCommand");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
 
 	public BTServer(String name, UUID uuid) throws IOException {
+		this(name, uuid, DEFAULT_MAX_SESSIONS, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param maxSessions        maximum number of clients connected at the same time
+	 * @param idleTimeoutSeconds a connection without commands for this time is closed
+	 */
+	public BTServer(String name, UUID uuid, int maxSessions, int idleTimeoutSeconds) throws IOException {
+		this.sessions = new Semaphore(maxSessions);
+		this.idleTimeoutMillis = idleTimeoutSeconds * 1000L;
 		LocalDevice.getLocalDevice().setDiscoverable(DiscoveryAgent.GIAC);
 		String url = "btspp://localhost:" + uuid.toString() + ";name=" + name + ";encrypt=false;authenticate=false";
 		Util.println("Connecting to '" + url + "'....");
@@ -61,41 +116,271 @@ public class BTServer {
 		this.scn = (StreamConnectionNotifier) Connector.open(url);
 	}
 
+	/**
+	 * Accept the clients. Every connection is handled by its own session task, so a slow or
+	 * stuck client does not block the others.
+	 */
 	public void start() throws IOException {
 		Util.println("BTServer started");
+		ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "BTWatchdog");
+			t.setDaemon(true);
+			return t;
+		});
+		watchdog.scheduleWithFixedDelay(this::closeIdleSessions, WATCHDOG_PERIOD, WATCHDOG_PERIOD, TimeUnit.SECONDS);
 		while(true) {
 			LocalDevice.getLocalDevice().setDiscoverable(DiscoveryAgent.GIAC);
 			// Accept a new client connection
-			this.sc = this.scn.acceptAndOpen();
-			// New client connection accepted; get a handle on it
-			RemoteDevice rd = RemoteDevice.getRemoteDevice(this.sc);
-			Util.println("New Bluetooth client connection... " + rd.getFriendlyName(false));
-			// Read input message, in this example a String
-			DataInputStream dataIn = this.sc.openDataInputStream();
-			DataOutputStream dataOut = this.sc.openDataOutputStream();
-			int chr;
-			StringBuffer sb = new StringBuffer();
-			while ((chr = dataIn.read()) != -1) {
-				if (chr == 0x03) {
-					handleCommand(sb.toString(), dataOut);
-					sb = new StringBuffer();
-				} else {
-					sb.append((char)chr);
-				}
-			}
-			Util.println("Bluetooth connection closed");
+			StreamConnection sc = this.scn.acceptAndOpen();
+			if (!this.sessions.tryAcquire()) {
+				Util.println("Bluetooth client refused, too many connections");
+				try (DataOutputStream dataOut = sc.openDataOutputStream()) {
+					writeError("Too many connections.", dataOut);
+				} catch (IOException e) {
+					Util.println(e.getMessage());
+				}
+				sc.close();
+				continue;
+			}
+			try {
+				this.executor.execute(new Session(sc));
+			} catch (RuntimeException e) {
+				this.sessions.release();
+				sc.close();
+				throw e;
+			}
+		}
+	}
+
+	private void closeIdleSessions() {
+		long now = System.currentTimeMillis();
+		for (Session s : this.active) {
+			if ((now - s.lastActivity) > this.idleTimeoutMillis) {
+				Util.println("Bluetooth connection " + s.name + " is idle, closing it");
+				s.close();
+			}
 		}
 	}
 
+	/**
+	 * One connected client.
+	 */
+	private class Session implements Runnable {
+		private final StreamConnection sc;
+		private String name = "?";
+		private volatile long lastActivity = System.currentTimeMillis();
+
+		Session(StreamConnection sc) {
+			this.sc = sc;
+		}
+
+		@Override
+		public void run() {
+			BTServer.this.active.add(this);
+			try {
+				// New client connection accepted; get a handle on it
+				this.name = RemoteDevice.getRemoteDevice(this.sc).getFriendlyName(false);
+				Util.println("New Bluetooth client connection... " + this.name);
+				// Read the ETX terminated commands
+				DataInputStream dataIn = this.sc.openDataInputStream();
+				DataOutputStream dataOut = this.sc.openDataOutputStream();
+				FrameDecoder frames = new FrameDecoder(dataIn);
+				CommandPipeline pipeline = null;
+				boolean binary = false;
+				while (true) {
+					if (binary) {
+						ByteBuffer frame;
+						try {
+							frame = frames.readBinaryFrame();
+						} catch (FrameDecoder.FrameTooLargeException e) {
+							Util.println(e.getMessage());
+							BinaryProtocol.writeResponse(0, 0, BinaryProtocol.STATUS_ERROR, e.getMessage().getBytes(StandardCharsets.UTF_8), dataOut);
+							continue;
+						}
+						if (frame == null) {
+							break;
+						}
+						this.lastActivity = System.currentTimeMillis();
+						binary = handleBinaryFrame(frame, dataOut);
+						this.lastActivity = System.currentTimeMillis();
+						continue;
+					}
+					String command;
+					try {
+						command = frames.readFrame();
+					} catch (FrameDecoder.FrameTooLargeException e) {
+						Util.println(e.getMessage());
+						sendError(e.getMessage(), pipeline, dataOut);
+						continue;
+					}
+					if (command == null) {
+						break;
+					}
+					this.lastActivity = System.currentTimeMillis();
+					ByteArrayOutputStream err = new ByteArrayOutputStream();
+					Command cmd = parseCommand(command, err);
+					if (cmd == null) {
+						if (pipeline != null) {
+							pipeline.write(err);
+						} else {
+							err.writeTo(dataOut);
+						}
+					} else if ("setProtocol".equals(cmd.getCmd())) {
+						String protocol = cmd.getData() == null ? "" : cmd.getData().getString("protocol", "");
+						if (!protocol.equals("json") && !protocol.equals("binary")) {
+							sendError("String parameter 'protocol' must be json or binary.", pipeline, dataOut);
+							continue;
+						}
+						if (pipeline != null) {
+							pipeline.drain();
+							pipeline = null;
+						}
+						writeResponse(new Response(cmd.getMsgId(), cmd.getCmd()), "{}".getBytes(StandardCharsets.UTF_8), dataOut);
+						dataOut.write(0x03); // ETX character
+						binary = protocol.equals("binary");
+					} else if ("setPipelining".equals(cmd.getCmd())) {
+						// Switching the mode must wait for the commands in the pipeline
+						if (pipeline != null) {
+							pipeline.drain();
+						}
+						boolean on = (cmd.getData() != null) && cmd.getData().getBoolean("pipelining", false);
+						pipeline = on ? new CommandPipeline(dataOut, BTServer.this.commandExecutor) : null;
+						writeResponse(new Response(cmd.getMsgId(), cmd.getCmd()), "{}".getBytes(StandardCharsets.UTF_8), dataOut);
+						dataOut.write(0x03); // ETX character
+					} else if (pipeline != null) {
+						pipeline.submit(cmd);
+					} else {
+						handleCommand(cmd, dataOut);
+					}
+					this.lastActivity = System.currentTimeMillis();
+				}
+				if (pipeline != null) {
+					pipeline.drain();
+				}
+			} catch (IOException e) {
+				Util.println("Bluetooth connection " + this.name + ": " + e.getMessage());
+			} finally {
+				BTServer.this.active.remove(this);
+				close();
+				BTServer.this.sessions.release();
+				Util.println("Bluetooth connection " + this.name + " closed");
+			}
+		}
+
+		/**
+		 * Send an error frame. With pipelining it goes through the pipeline, so it does not interleave
+		 * with a response that is written at the same time.
+		 */
+		private void sendError(String msg, CommandPipeline pipeline, OutputStream out) throws IOException {
+			if (pipeline != null) {
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				writeError(msg, buf);
+				pipeline.write(buf);
+			} else {
+				writeError(msg, out);
+			}
+		}
+
+		/**
+		 * Execute one frame of the binary protocol.
+		 *
+		 * @return false when the client switches back to the JSON protocol
+		 */
+		private boolean handleBinaryFrame(ByteBuffer frame, DataOutputStream dataOut) throws IOException {
+			if (frame.hasRemaining() && ((frame.get(0) & 0xFF) == BinaryProtocol.SET_PROTOCOL_JSON)) {
+				int id = frame.remaining() >= 3 ? frame.getShort(1) & 0xFFFF : 0;
+				BinaryProtocol.writeResponse(BinaryProtocol.SET_PROTOCOL_JSON, id, BinaryProtocol.STATUS_OK, new byte[0], dataOut);
+				return false;
+			}
+			BinaryProtocol.handleFrame(frame, dataOut);
+			return true;
+		}
+
+		/**
+		 * Close the connection, a blocked read of the session then ends with an IOException.
+		 */
+		void close() {
+			try {
+				this.sc.close();
+			} catch (IOException e) {
+				Util.println(e.getMessage());
+			}
+		}
+	}
+
+	static void writeError(String msg, OutputStream out) throws IOException {
+		writeResponse(new Response(null, ""), ("{\"error\":\"" + msg + "\"}").getBytes(StandardCharsets.UTF_8), out);
+		out.write(0x03); // ETX character
+	}
+
 	/**
 	 * @param string
 	 * @throws IOException
 	 */
 	public static void handleCommand (String command, OutputStream out) throws IOException {
-		Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withFormatting(true));
-		// Analyze command
-		Command cmd = jsonb.fromJson(command, Command.class);
+		Command cmd = parseCommand(command, out);
+		if (cmd != null) {
+			handleCommand(cmd, out);
+		}
+	}
+
+	/**
+	 * @return the command, or null when it is not valid; then an error response has been written
+	 */
+	static Command parseCommand (String command, OutputStream out) throws IOException {
+		try {
+			return Jsonbs.PRETTY.fromJson(command, Command.class);
+		} catch (JsonbException | JsonException e) {
+			writeError("Command is not a valid JSON object.", out);
+			return null;
+		}
+	}
+
+	static boolean isMutating (Command cmd) {
+		return (cmd.getCmd() != null) && MUTATING_COMMANDS.contains(cmd.getCmd());
+	}
+
+	static void handleCommand (Command cmd, OutputStream out) throws IOException {
+		if (isMutating(cmd)) {
+			// The response is small; it is written after the lock is released, so a slow client never holds the lock
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+			synchronized (Terrarium.CONTROL_LOCK) {
+				writeCommand(cmd, buf);
+			}
+			buf.writeTo(out);
+		} else {
+			writeCommand(cmd, out);
+		}
+		out.write(0x03); // ETX character
+	}
+
+	private static void writeCommand (Command cmd, OutputStream out) throws IOException {
+		if (cmd.isCompress()) {
+			// The frame is the base64 of the gzipped response, it is written while the response is produced
+			GZIPOutputStream gz = new GZIPOutputStream(Base64.getEncoder().wrap(new FilterOutputStream(out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					// keep the connection open
+					flush();
+				}
+			}), COMPRESS_BUFFER_SIZE);
+			executeCommand(cmd, gz);
+			gz.close();
+		} else {
+			executeCommand(cmd, out);
+		}
+	}
+
+	private static void executeCommand (Command cmd, OutputStream out) throws IOException {
+		Jsonb jsonb = Jsonbs.PRETTY;
 		Response res = new Response(cmd.getMsgId(), cmd.getCmd());
+		// Set when a streamed response is started, from then on no other response can be written
+		boolean streaming = false;
 		try {
 			switch(cmd.getCmd()) {
 			case "getSensors": {
@@ -126,10 +411,9 @@ public class BTServer {
 				break;
 			}
 			case "getState": {
-				JsonReader jsonReader = Json.createReader(new StringReader(Terrarium.getInstance().getState()));
-				JsonObject object = jsonReader.readObject();
-				res.setResponse(object);
-				break;
+				// Send the cached state as is, without parsing and serializing it again
+				writeResponse(res, Terrarium.getInstance().getStateBytes(), out);
+				return;
 			}
 			case "setDeviceOn": {
 				if (cmd.getData() == null) {
@@ -329,27 +613,51 @@ public class BTServer {
 				break;
 			}
 			case "getTemperatureFile": {
-				String content = "";
 				String prm = cmd.getData().getString("fname", "");
 				if( prm.length() == 0) {
 					throw new CommandException("String parameter 'fname' not found.");
 				}
-				content = Files.readString(Paths.get(Terrarium.traceFolder + "/" + cmd.getData().getString("fname")));
-				JsonReader jsonReader = Json.createReader(new StringReader("{\"content\":\"" + content.replace("\n", "\\n") + "\"}"));
-				JsonObject object = jsonReader.readObject();
-				res.setResponse(object);
-				break;
+				Path file = traceFile(prm, "temp_");
+				// Streamed from disk, so a large file is never completely in memory
+				streaming = true;
+				writeTraceFile(res, file, out);
+				return;
 			}
 			case "getStateFile": {
-				String content = "";
 				String prm = cmd.getData().getString("fname", "");
 				if( prm.length() == 0) {
 					throw new CommandException("String parameter 'fname' not found.");
 				}
-				content = Files.readString(Paths.get(Terrarium.traceFolder + "/" + cmd.getData().getString("fname")));
-				JsonReader jsonReader = Json.createReader(new StringReader("{\"content\":\"" + content.replace("\n", "\\n") + "\"}"));
-				JsonObject object = jsonReader.readObject();
-				res.setResponse(object);
+				Path file = traceFile(prm, "state_");
+				streaming = true;
+				writeTraceFile(res, file, out);
+				return;
+			}
+			case "getTemperatureHistory": {
+				if (cmd.getData() == null) {
+					throw new CommandException("No data found.");
+				}
+				String from = cmd.getData().getString("from", "");
+				if (from.length() == 0) {
+					throw new CommandException("String parameter 'from' not found.");
+				}
+				String to = cmd.getData().getString("to", "");
+				if (to.length() == 0) {
+					throw new CommandException("String parameter 'to' not found.");
+				}
+				int bucket = cmd.getData().getInt("bucket", 0);
+				if (bucket <= 0) {
+					throw new CommandException("Integer parameter 'bucket' must be > 0 minutes.");
+				}
+				TemperatureHistory history;
+				try {
+					history = TemperatureHistory.of(from, to, bucket);
+				} catch (IllegalArgumentException e) {
+					throw new CommandException(e.getMessage());
+				}
+				history.scan(Terrarium.traceFolder, SensorStore.getInstance());
+				JsonReader jsonReader = Json.createReader(new StringReader(history.toJson()));
+				res.setResponse(jsonReader.readObject());
 				break;
 			}
 			default:
@@ -357,8 +665,11 @@ public class BTServer {
 			}
 			// Construct response
 			out.write(jsonb.toJson(res).getBytes());
-			out.write(0x03); // ETX character
 		} catch (Exception e) {
+			if (streaming) {
+				// Part of the response may be written, so the frame cannot be completed
+				throw e instanceof IOException ? (IOException) e : new IOException(e);
+			}
 			if (e instanceof CommandException) {
 				System.err.println(e.getMessage());
 				JsonReader jsonReader = Json.createReader(new StringReader("{\"error\":\"" + e.getMessage() + "\"}"));
@@ -374,8 +685,50 @@ public class BTServer {
 				res.setResponse(object);
 			}
 			out.write(jsonb.toJson(res).getBytes());
-			out.write(0x03); // ETX character
 		}
 	}
+
+	/**
+	 * Write a response with an already serialized JSON object as the response.
+	 */
+	static void writeResponse(Response res, byte[] json, OutputStream out) throws IOException {
+		writeResponseStart(res, out);
+		out.write(json);
+		out.write('}');
+	}
+
+	/**
+	 * @return the existing trace file
+	 */
+	private static Path traceFile(String fname, String prefix) throws CommandException {
+		Path file;
+		try {
+			file = TraceFileStreamer.resolve(fname, prefix);
+		} catch (IllegalArgumentException e) {
+			throw new CommandException(e.getMessage());
+		}
+		if (!Files.isRegularFile(file)) {
+			throw new CommandException("Tracefile '" + fname + "' not found.");
+		}
+		return file;
+	}
+
+	/**
+	 * Write a response with the content of a trace file, see {@link TraceFileStreamer}.
+	 */
+	private static void writeTraceFile(Response res, Path file, OutputStream out) throws IOException {
+		writeResponseStart(res, out);
+		TraceFileStreamer.writeContent(file, out);
+		out.write('}');
+	}
+
+	private static void writeResponseStart(Response res, OutputStream out) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		if (res.getMsgId() != null) {
+			sb.append("\"msgId\":\"").append(res.getMsgId()).append("\",");
+		}
+		sb.append("\"command\":\"").append(res.getCommand()).append("\",\"response\":");
+		out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
 }
 
@@ -0,0 +1,314 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import nl.das.tcu.Util;
+import nl.das.tcu.objects.Action;
+import nl.das.tcu.objects.DeviceState;
+import nl.das.tcu.objects.DeviceStateTable;
+import nl.das.tcu.objects.TemperatureRule;
+import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.objects.Timer;
+
+/**
+ * Binary encoding of the Bluetooth commands, an alternative for the JSON protocol.
+ * A client switches to it with the JSON command setProtocol {"protocol":"binary"}.
+ *
+ * All numbers are big-endian. A device is identified by its index in the device list (see GET_DEVICES).
+ * <pre>
+ * request:  length (int32, of the rest) | code (uint8) | id (uint16) | arguments
+ * response: length (int32, of the rest) | code (uint8) | id (uint16) | status (uint8) | body
+ *           status 0 = ok, 1 = error and the body is the UTF-8 message
+ * </pre>
+ * The id of a request is copied into its response. Commands without a binary code can be sent
+ * as a JSON command with the code JSON; the body of the response is then the JSON response.
+ */
+public class BinaryProtocol {
+
+	/** body: trace (uint8) | nr (uint8) | per device: flags (uint8, 1 = on, 2 = manual) | controlled by (int8) | end time (int64) | hours on (int32) */
+	public static final int GET_STATE = 0x01;
+	/** body: room temp (int16) | room humidity (uint8) | terrarium temp (int16) | cpu temp (int16) */
+	public static final int GET_SENSORS = 0x02;
+	/** body: nr (uint8) | per device: name length (uint8) | name (UTF-8) */
+	public static final int GET_DEVICES = 0x03;
+	/** args: device (uint8) */
+	public static final int SET_DEVICE_ON = 0x10;
+	/** args: device (uint8) */
+	public static final int SET_DEVICE_OFF = 0x11;
+	/** args: device (uint8) | period in seconds (uint16) */
+	public static final int SET_DEVICE_ON_FOR = 0x12;
+	/** args: device (uint8) */
+	public static final int SET_DEVICE_MANUAL_ON = 0x13;
+	/** args: device (uint8) */
+	public static final int SET_DEVICE_MANUAL_OFF = 0x14;
+	/** args: device (uint8); body: timers, see {@link #writeTimers} */
+	public static final int GET_TIMERS = 0x20;
+	/** args: device (uint8) | timers, see {@link #writeTimers} */
+	public static final int REPLACE_TIMERS = 0x21;
+	/** args: rule nr (uint8); body: rule, see {@link #writeRule} */
+	public static final int GET_TEMPERATURE_RULE = 0x30;
+	/** args: rule nr (uint8) | rule, see {@link #writeRule} */
+	public static final int SAVE_TEMPERATURE_RULE = 0x31;
+	/** Switch back to the JSON protocol, handled by the session */
+	public static final int SET_PROTOCOL_JSON = 0x7E;
+	/** args: a JSON command (UTF-8); body: the JSON response */
+	public static final int JSON = 0x7F;
+
+	public static final int STATUS_OK = 0;
+	public static final int STATUS_ERROR = 1;
+
+	private static final int NO_DEVICE = 0xFF;
+
+	/**
+	 * Execute a request frame (without its length) and write the response frame.
+	 */
+	public static void handleFrame(ByteBuffer req, OutputStream out) throws IOException {
+		int code = -1;
+		int id = 0;
+		ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+		try {
+			code = req.get() & 0xFF;
+			id = req.getShort() & 0xFFFF;
+			if (isMutating(code)) {
+				synchronized (Terrarium.CONTROL_LOCK) {
+					execute(code, req, new DataOutputStream(body));
+				}
+			} else {
+				execute(code, req, new DataOutputStream(body));
+			}
+		} catch (CommandException | IllegalArgumentException | BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+			String msg = e instanceof BufferUnderflowException ? "Request is too short." : e.getMessage();
+			writeResponse(code, id, STATUS_ERROR, String.valueOf(msg).getBytes(StandardCharsets.UTF_8), out);
+			return;
+		} catch (RuntimeException e) {
+			// A failed command must not end the session
+			Util.println("Binary command " + code + " failed: " + e);
+			writeResponse(code, id, STATUS_ERROR, e.toString().getBytes(StandardCharsets.UTF_8), out);
+			return;
+		}
+		writeResponse(code, id, STATUS_OK, body.toByteArray(), out);
+	}
+
+	static boolean isMutating(int code) {
+		return ((code >= SET_DEVICE_ON) && (code <= SET_DEVICE_MANUAL_OFF)) || (code == REPLACE_TIMERS) || (code == SAVE_TEMPERATURE_RULE);
+	}
+
+	public static void writeResponse(int code, int id, int status, byte[] body, OutputStream out) throws IOException {
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(4 + body.length);
+		dout.writeByte(code);
+		dout.writeShort(id);
+		dout.writeByte(status);
+		dout.write(body);
+		dout.flush();
+	}
+
+	private static void execute(int code, ByteBuffer req, DataOutputStream out) throws IOException, CommandException {
+		Terrarium terrarium = Terrarium.getInstance();
+		String[] devices = Terrarium.cfg.getDeviceList();
+		switch (code) {
+		case GET_STATE: {
+			Map<String, DeviceState> states = terrarium.getDevStates();
+			out.writeByte(terrarium.isTraceOn() ? 1 : 0);
+			out.writeByte(devices.length);
+			for (String device : devices) {
+				// Read the packed state once, so the fields of a device are consistent
+				long state = states.get(device).getPackedState();
+				long endtime = DeviceStateTable.endtime(state);
+				out.writeByte((endtime != DeviceState.ENDTIME_OFF ? 1 : 0) | (DeviceStateTable.manual(state) ? 2 : 0));
+				out.writeByte(DeviceStateTable.controlledBy(state));
+				out.writeLong(endtime);
+				out.writeInt(DeviceStateTable.lifetime(state));
+			}
+			break;
+		}
+		case GET_SENSORS:
+			// The last read values, the sensors are not read
+			out.writeShort(terrarium.getRoomTemperature());
+			out.writeByte(terrarium.getRoomHumidity());
+			out.writeShort(terrarium.getTerrariumTemperature());
+			out.writeShort(terrarium.getCpuTemperature());
+			break;
+		case GET_DEVICES:
+			out.writeByte(devices.length);
+			for (String device : devices) {
+				byte[] name = device.getBytes(StandardCharsets.UTF_8);
+				out.writeByte(name.length);
+				out.write(name);
+			}
+			break;
+		case SET_DEVICE_ON:
+			terrarium.setDeviceOn(devices[deviceArg(req, devices)], DeviceState.ENDTIME_INDEFINITE, DeviceState.NOT_CONTROLLED);
+			break;
+		case SET_DEVICE_OFF:
+			terrarium.setDeviceOff(devices[deviceArg(req, devices)], DeviceState.NOT_CONTROLLED);
+			break;
+		case SET_DEVICE_ON_FOR: {
+			String device = devices[deviceArg(req, devices)];
+			int per = req.getShort() & 0xFFFF;
+			if ((per <= 0) || (per > 3600)) {
+				throw new CommandException("Period must be > 0 and < 3600 seconds.");
+			}
+			terrarium.setDeviceOn(device, Util.now(LocalDateTime.now()) + per, 4);
+			break;
+		}
+		case SET_DEVICE_MANUAL_ON:
+			terrarium.setDeviceManualOn(devices[deviceArg(req, devices)]);
+			break;
+		case SET_DEVICE_MANUAL_OFF:
+			terrarium.setDeviceManualOff(devices[deviceArg(req, devices)]);
+			break;
+		case GET_TIMERS:
+			writeTimers(terrarium.getTimersForDevice(devices[deviceArg(req, devices)]), out);
+			break;
+		case REPLACE_TIMERS: {
+			String device = devices[deviceArg(req, devices)];
+			terrarium.replaceTimers(readTimers(device, req));
+			terrarium.saveSettings();
+			break;
+		}
+		case GET_TEMPERATURE_RULE:
+			writeRule(terrarium.getRule(ruleArg(req)), devices, out);
+			break;
+		case SAVE_TEMPERATURE_RULE: {
+			int nr = ruleArg(req);
+			terrarium.replaceRule(nr, readRule(req, devices));
+			terrarium.saveSettings();
+			break;
+		}
+		case JSON: {
+			byte[] json = new byte[req.remaining()];
+			req.get(json);
+			ByteArrayOutputStream res = new ByteArrayOutputStream(1024);
+			BTServer.handleCommand(new String(json, StandardCharsets.UTF_8), res);
+			// without the ETX
+			out.write(res.toByteArray(), 0, res.size() - 1);
+			break;
+		}
+		default:
+			throw new CommandException("Command code " + code + " is not implemented.");
+		}
+		out.flush();
+	}
+
+	private static int deviceArg(ByteBuffer req, String[] devices) throws CommandException {
+		int id = req.get() & 0xFF;
+		if (id >= devices.length) {
+			throw new CommandException("Device " + id + " does not exist.");
+		}
+		return id;
+	}
+
+	private static int ruleArg(ByteBuffer req) throws CommandException {
+		int nr = req.get() & 0xFF;
+		if ((nr < 1) || (nr > Terrarium.NR_OF_RULES)) {
+			throw new CommandException("Rule " + nr + " does not exist.");
+		}
+		return nr;
+	}
+
+	/**
+	 * nr (uint8) | per timer: index (uint8) | hour on | minute on | hour off | minute off | repeat (uint8 each) | period (int32)
+	 */
+	public static void writeTimers(Timer[] timers, DataOutputStream out) throws IOException {
+		out.writeByte(timers.length);
+		for (Timer t : timers) {
+			out.writeByte(t.getIndex());
+			out.writeByte(t.getHour_on());
+			out.writeByte(t.getMinute_on());
+			out.writeByte(t.getHour_off());
+			out.writeByte(t.getMinute_off());
+			out.writeByte(t.getRepeat());
+			out.writeInt(t.getPeriod());
+		}
+	}
+
+	public static Timer[] readTimers(String device, ByteBuffer in) {
+		Timer[] timers = new Timer[in.get() & 0xFF];
+		for (int i = 0; i < timers.length; i++) {
+			Timer t = new Timer();
+			t.setDevice(device);
+			t.setIndex(in.get() & 0xFF);
+			t.setHour_on(in.get() & 0xFF);
+			t.setMinute_on(in.get() & 0xFF);
+			t.setHour_off(in.get() & 0xFF);
+			t.setMinute_off(in.get() & 0xFF);
+			t.setRepeat(in.get() & 0xFF);
+			t.setPeriod(in.getInt());
+			timers[i] = t;
+		}
+		return timers;
+	}
+
+	/**
+	 * active (uint8) | from, to in minutes of the day (uint16) | ideal, threshold (int8) | delay (uint16)
+	 * | nr of actions (uint8) | per action: device (uint8, 255 = no device) | on period (int32)
+	 */
+	public static void writeRule(TemperatureRule rule, String[] devices, DataOutputStream out) throws IOException {
+		out.writeByte("yes".equalsIgnoreCase(rule.getActive()) ? 1 : 0);
+		out.writeShort((int) Util.cvtStringToMinutes(rule.getFrom()));
+		out.writeShort((int) Util.cvtStringToMinutes(rule.getTo()));
+		out.writeByte(rule.getTemp_ideal());
+		out.writeByte(rule.getTemp_threshold());
+		out.writeShort(rule.getDelay());
+		Action[] actions = rule.getActions() == null ? new Action[0] : rule.getActions();
+		out.writeByte(actions.length);
+		for (Action a : actions) {
+			int id = NO_DEVICE;
+			for (int i = 0; i < devices.length; i++) {
+				if (devices[i].equalsIgnoreCase(a.getDevice())) {
+					id = i;
+				}
+			}
+			out.writeByte(id);
+			out.writeInt(a.getOn_period());
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException when from or to is not a minute of the day
+	 */
+	public static TemperatureRule readRule(ByteBuffer in, String[] devices) {
+		boolean active = in.get() != 0;
+		String from = hhmm(minuteOfDay(in));
+		String to = hhmm(minuteOfDay(in));
+		int ideal = in.get();
+		int threshold = in.get();
+		int delay = in.getShort() & 0xFFFF;
+		Action[] actions = new Action[in.get() & 0xFF];
+		for (int i = 0; i < actions.length; i++) {
+			int id = in.get() & 0xFF;
+			actions[i] = new Action(id < devices.length ? devices[id] : "no device", in.getInt());
+		}
+		return new TemperatureRule(active, from, to, ideal, threshold, delay, actions);
+	}
+
+	private static int minuteOfDay(ByteBuffer in) {
+		int minutes = in.getShort() & 0xFFFF;
+		if (minutes >= 1440) {
+			throw new IllegalArgumentException("Minute " + minutes + " is not a minute of the day.");
+		}
+		return minutes;
+	}
+
+	private static String hhmm(int minutes) {
+		return String.format("%02d:%02d", minutes / 60, minutes % 60);
+	}
+}
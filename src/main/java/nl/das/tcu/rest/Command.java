@@ -21,6 +21,7 @@ public class Command {
 	private UUID msgId;
 	private String cmd;
 	private JsonObject data;
+	private boolean compress;
 
 	public Command() { this.msgId = UUID.randomUUID(); }
 
@@ -48,4 +49,13 @@ public class Command {
 	public void setData (JsonObject data) {
 		this.data = data;
 	}
+	/**
+	 * @return true when the response must be sent gzipped and base64 encoded
+	 */
+	public boolean isCompress () {
+		return this.compress;
+	}
+	public void setCompress (boolean compress) {
+		this.compress = compress;
+	}
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nl.das.tcu.Util;
+
+/**
+ * Pipelined execution of the commands of one Bluetooth connection.
+ *
+ * The client can send commands without waiting for the responses. Every response is written as
+ * soon as it is ready, so the client matches a response to its command by the msgId.
+ * The commands that only read run in parallel. A command that changes the Terrarium waits for all
+ * commands received before it, and the commands received after it wait for it. So a client sees
+ * the effect of its changes in the same order as when it would wait for every response.
+ *
+ * A response is collected in memory and written as a whole, so a slow command never holds up the
+ * responses of the other commands. Only a response larger than MAX_BUFFERED_RESPONSE, like a large
+ * trace file, is written directly to the connection; the other responses then wait until it is done.
+ */
+public class CommandPipeline {
+
+	public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+	public static final int MAX_BUFFERED_RESPONSE = 64 * 1024;
+
+	private final OutputStream out;
+	private final Executor executor;
+	private final Semaphore inFlight;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	// Only used by the reading thread
+	private CompletableFuture<Void> lastChange = CompletableFuture.completedFuture(null);
+	private final List<CompletableFuture<Void>> readsSinceChange = new ArrayList<>();
+	private volatile IOException failure;
+
+	public CommandPipeline(OutputStream out, Executor executor) {
+		this(out, executor, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * @param maxInFlight maximum number of commands in execution; when reached submit() waits
+	 */
+	public CommandPipeline(OutputStream out, Executor executor, int maxInFlight) {
+		this.out = out;
+		this.executor = executor;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Start the execution of a command.
+	 *
+	 * @throws IOException when a previous response could not be written
+	 */
+	public void submit(Command cmd) throws IOException {
+		if (this.failure != null) {
+			throw this.failure;
+		}
+		try {
+			this.inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+		if (BTServer.isMutating(cmd)) {
+			List<CompletableFuture<Void>> before = new ArrayList<>(this.readsSinceChange);
+			before.add(this.lastChange);
+			this.lastChange = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0]))
+					.thenRunAsync(() -> execute(cmd), this.executor);
+			this.readsSinceChange.clear();
+		} else {
+			this.readsSinceChange.removeIf(CompletableFuture::isDone);
+			this.readsSinceChange.add(this.lastChange.thenRunAsync(() -> execute(cmd), this.executor));
+		}
+	}
+
+	/**
+	 * Wait until all submitted commands are executed and their responses written.
+	 */
+	public void drain() throws IOException {
+		List<CompletableFuture<Void>> all = new ArrayList<>(this.readsSinceChange);
+		all.add(this.lastChange);
+		CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).join();
+		this.readsSinceChange.clear();
+		if (this.failure != null) {
+			throw this.failure;
+		}
+	}
+
+	private void execute(Command cmd) {
+		ResponseStream res = new ResponseStream();
+		try {
+			BTServer.handleCommand(cmd, res);
+			res.finish();
+		} catch (IOException e) {
+			Util.println("Response to " + cmd.getCmd() + " not written: " + e.getMessage());
+			this.failure = e;
+		} catch (RuntimeException e) {
+			// The commands chained after this one must still run
+			Util.println("Command " + cmd.getCmd() + " failed: " + e);
+			if (res.direct) {
+				// Part of the response is already written, the frame cannot be completed
+				this.failure = new IOException("Command " + cmd.getCmd() + " failed", e);
+			} else {
+				try {
+					ByteArrayOutputStream err = new ByteArrayOutputStream();
+					BTServer.writeError("Command failed: " + e.getClass().getSimpleName(), err);
+					write(err);
+				} catch (IOException ex) {
+					this.failure = ex;
+				}
+			}
+		} finally {
+			res.release();
+			this.inFlight.release();
+		}
+	}
+
+	/**
+	 * Write a complete response between the responses of the pipeline.
+	 */
+	public void write(ByteArrayOutputStream response) throws IOException {
+		this.writeLock.lock();
+		try {
+			checkFailure();
+			response.writeTo(this.out);
+			this.out.flush();
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	/**
+	 * After a failed write a frame may be incomplete, so nothing is written anymore.
+	 */
+	private void checkFailure() throws IOException {
+		if (this.failure != null) {
+			throw this.failure;
+		}
+	}
+
+	/**
+	 * The response of one command. It is collected up to MAX_BUFFERED_RESPONSE bytes; when it gets
+	 * larger the write lock is taken, the collected bytes are written and the rest of the response
+	 * is written directly until {@link #finish()}.
+	 */
+	private final class ResponseStream extends OutputStream {
+		private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+		private boolean direct;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (!this.direct && ((this.buf.size() + len) > MAX_BUFFERED_RESPONSE)) {
+				CommandPipeline.this.writeLock.lock();
+				this.direct = true;
+				checkFailure();
+				this.buf.writeTo(CommandPipeline.this.out);
+				this.buf.reset();
+			}
+			if (this.direct) {
+				CommandPipeline.this.out.write(b, off, len);
+			} else {
+				this.buf.write(b, off, len);
+			}
+		}
+
+		/**
+		 * Write the collected response, or complete the direct write.
+		 */
+		void finish() throws IOException {
+			if (this.direct) {
+				CommandPipeline.this.out.flush();
+			} else {
+				CommandPipeline.this.write(this.buf);
+			}
+		}
+
+		/**
+		 * Release the write lock when the response was written directly.
+		 */
+		void release() {
+			if (this.direct && CommandPipeline.this.writeLock.isHeldByCurrentThread()) {
+				CommandPipeline.this.writeLock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.rest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xnio.IoUtils;
+
+import io.undertow.Handlers;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import io.undertow.util.AttachmentKey;
+import nl.das.tcu.Util;
+import nl.das.tcu.objects.DeviceState;
+import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.objects.TerrariumListener;
+
+/**
+ * Pushes the changes of the terrarium as server-sent events (GET /events), so a client does not
+ * have to poll /state and /sensors.
+ *
+ * On connect the client receives the full state as a "state" event, followed by a "device" event
+ * for every device that changes and a "sensors" event every time the sensors are read.
+ * The sends are asynchronous, so a slow client never blocks the control loop. A client that has
+ * more than MAX_PENDING_EVENTS events not yet sent is disconnected, so a stalled client does not
+ * fill the memory.
+ */
+public class EventPublisher implements TerrariumListener {
+
+	public static final long KEEP_ALIVE_MILLIS = 30000L;
+	public static final int MAX_PENDING_EVENTS = 64;
+
+	// Number of events of a connection that are not sent yet
+	private static final AttachmentKey<AtomicInteger> PENDING = AttachmentKey.create(AtomicInteger.class);
+
+	private final ServerSentEventHandler handler;
+	private final AtomicLong eventId = new AtomicLong();
+
+	private final ServerSentEventConnection.EventCallback sent = new ServerSentEventConnection.EventCallback() {
+		@Override
+		public void done(ServerSentEventConnection conn, String data, String event, String id) {
+			conn.getAttachment(PENDING).decrementAndGet();
+		}
+
+		@Override
+		public void failed(ServerSentEventConnection conn, String data, String event, String id, IOException e) {
+			conn.getAttachment(PENDING).decrementAndGet();
+		}
+	};
+
+	public EventPublisher() {
+		this.handler = Handlers.serverSentEvents((conn, lastEventId) -> {
+			conn.setKeepAliveTime(KEEP_ALIVE_MILLIS);
+			conn.putAttachment(PENDING, new AtomicInteger());
+			send(conn, Terrarium.getInstance().getState(), "state", nextId());
+			Util.println("Event client connected, " + getNrOfClients() + " client(s)");
+		});
+	}
+
+	public ServerSentEventHandler getHandler() {
+		return this.handler;
+	}
+
+	public int getNrOfClients() {
+		return this.handler.getConnections().size();
+	}
+
+	@Override
+	public void deviceChanged(DeviceState state) {
+		if (!this.handler.getConnections().isEmpty()) {
+			publish("device", state.toJson());
+		}
+	}
+
+	@Override
+	public void sensorsRead(int roomTemperature, int terrariumTemperature, int roomHumidity, int cpuTemperature) {
+		if (!this.handler.getConnections().isEmpty()) {
+			publish("sensors", "{\"roomtemp\":" + roomTemperature + ",\"terrtemp\":" + terrariumTemperature
+					+ ",\"humidity\":" + roomHumidity + ",\"cputemp\":" + cpuTemperature + "}");
+		}
+	}
+
+	private void publish(String event, String data) {
+		String id = nextId();
+		for (ServerSentEventConnection conn : this.handler.getConnections()) {
+			send(conn, data, event, id);
+		}
+	}
+
+	private void send(ServerSentEventConnection conn, String data, String event, String id) {
+		AtomicInteger pending = conn.getAttachment(PENDING);
+		if (pending == null) {
+			// Not connected yet, it gets the full state on connect
+			return;
+		}
+		if (pending.incrementAndGet() > MAX_PENDING_EVENTS) {
+			pending.decrementAndGet();
+			Util.println("Event client does not read its events, disconnected");
+			IoUtils.safeClose(conn);
+			return;
+		}
+		conn.send(data, event, id, this.sent);
+	}
+
+	private String nextId() {
+		return Long.toString(this.eventId.incrementAndGet());
+	}
+}
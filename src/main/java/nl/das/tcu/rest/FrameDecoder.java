@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the Bluetooth input stream into the ETX (0x03) terminated frames of the protocol.
+ *
+ * The stream is read in blocks into one reusable buffer and a frame is decoded as UTF-8 only when
+ * its ETX has been found, so a multi-byte character split over two reads is decoded correctly.
+ * A frame larger than the maximum frame size is skipped up to its ETX.
+ *
+ * The binary protocol uses frames with a length prefix instead, see {@link #readBinaryFrame()}.
+ * Both kinds of frames can be read from the same decoder, so a switch of protocol does not lose
+ * the bytes that have already been read.
+ */
+public class FrameDecoder {
+
+	public static final byte ETX = 0x03;
+	public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+	/**
+	 * Thrown when a frame is larger than the maximum frame size. The frame has been skipped,
+	 * so the next frame can be read.
+	 */
+	public static class FrameTooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public FrameTooLargeException(int maxFrameSize) {
+			super("Frame is larger than " + maxFrameSize + " bytes.");
+		}
+	}
+
+	private final InputStream in;
+	private final int maxFrameSize;
+	private final byte[] buf;
+	private int start;
+	private int end;
+	private boolean skipping;
+
+	public FrameDecoder(InputStream in) {
+		this(in, DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	public FrameDecoder(InputStream in, int maxFrameSize) {
+		this.in = in;
+		this.maxFrameSize = maxFrameSize;
+		// room for the largest frame and its ETX or length
+		this.buf = new byte[maxFrameSize + 4];
+	}
+
+	/**
+	 * Read the next frame.
+	 *
+	 * @return the frame without the ETX, or null at the end of the stream (an unterminated frame is dropped)
+	 * @throws FrameTooLargeException when the frame is larger than the maximum frame size
+	 */
+	public String readFrame() throws IOException {
+		int scan = this.start;
+		while (true) {
+			for (; scan < this.end; scan++) {
+				if (this.buf[scan] == ETX) {
+					int from = this.start;
+					this.start = scan + 1;
+					if (this.skipping) {
+						this.skipping = false;
+						throw new FrameTooLargeException(this.maxFrameSize);
+					}
+					return new String(this.buf, from, scan - from, StandardCharsets.UTF_8);
+				}
+			}
+			if (this.skipping || ((this.end - this.start) > this.maxFrameSize)) {
+				// Nothing of the frame is kept
+				this.skipping = true;
+				this.start = 0;
+				this.end = 0;
+			} else if (this.end == this.buf.length) {
+				compact();
+			}
+			scan = this.end;
+			int n = this.in.read(this.buf, this.end, this.buf.length - this.end);
+			if (n == -1) {
+				this.start = 0;
+				this.end = 0;
+				return null;
+			}
+			this.end += n;
+		}
+	}
+
+	/**
+	 * Read the next frame of the binary protocol: a big-endian int32 length followed by that number of bytes.
+	 *
+	 * @return the frame without its length, or null at the end of the stream. It is a view on the buffer of
+	 *         the decoder, so it is only valid until the next read.
+	 * @throws FrameTooLargeException when the frame is larger than the maximum frame size
+	 */
+	public ByteBuffer readBinaryFrame() throws IOException {
+		if (!fill(4)) {
+			return null;
+		}
+		int len = ByteBuffer.wrap(this.buf, this.start, 4).getInt();
+		if (len < 0) {
+			throw new IOException("Invalid frame length " + len);
+		}
+		this.start += 4;
+		if (len > this.maxFrameSize) {
+			skip(len);
+			throw new FrameTooLargeException(this.maxFrameSize);
+		}
+		if (!fill(len)) {
+			return null;
+		}
+		ByteBuffer frame = ByteBuffer.wrap(this.buf, this.start, len).slice();
+		this.start += len;
+		return frame;
+	}
+
+	/**
+	 * Read until at least n bytes are available from start.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean fill(int n) throws IOException {
+		if ((this.buf.length - this.start) < n) {
+			compact();
+		}
+		while ((this.end - this.start) < n) {
+			int r = this.in.read(this.buf, this.end, this.buf.length - this.end);
+			if (r == -1) {
+				this.start = 0;
+				this.end = 0;
+				return false;
+			}
+			this.end += r;
+		}
+		return true;
+	}
+
+	private void skip(long n) throws IOException {
+		while (n > 0) {
+			if (this.start == this.end) {
+				this.start = 0;
+				this.end = this.in.read(this.buf, 0, this.buf.length);
+				if (this.end == -1) {
+					this.end = 0;
+					return;
+				}
+			}
+			int k = (int) Math.min(n, this.end - this.start);
+			this.start += k;
+			n -= k;
+		}
+	}
+
+	private void compact() {
+		System.arraycopy(this.buf, this.start, this.buf, 0, this.end - this.start);
+		this.end -= this.start;
+		this.start = 0;
+	}
+}
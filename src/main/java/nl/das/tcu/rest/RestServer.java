@@ -13,12 +13,18 @@ import org.slf4j.LoggerFactory;
 
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.predicate.Predicate;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.server.handlers.accesslog.AccessLogHandler;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
 import io.undertow.util.Headers;
 import nl.das.tcu.Util;
+import nl.das.tcu.objects.Terrarium;
 import nl.das.tcu.rest.handlers.DeviceStateHandler;
 import nl.das.tcu.rest.handlers.HistoryHandler;
 import nl.das.tcu.rest.handlers.PropertiesHandler;
@@ -34,15 +40,29 @@ public class RestServer {
 	private Undertow server;
 	private static RestServer instance;
 
-	private RestServer(String host, int port) {
+	public static final int DEFAULT_IO_THREADS = 2;
+	public static final int DEFAULT_WORKER_THREADS = 4;
+	public static final long MIN_COMPRESS_SIZE = 256;
+
+	private RestServer(String host, int port, int ioThreads, int workerThreads) {
 		this.server = Undertow.builder()
 			.addHttpListener(port, host)
+			.setIoThreads(ioThreads)
+			.setWorkerThreads(workerThreads)
 			.setHandler(setRoot()).build();
 	}
 
 	public static RestServer getInstance(String host, int port) {
+		return getInstance(host, port, DEFAULT_IO_THREADS, DEFAULT_WORKER_THREADS);
+	}
+
+	/**
+	 * @param ioThreads     number of IO threads, they serve the read-only requests
+	 * @param workerThreads number of worker threads, they serve the requests that can block
+	 */
+	public static RestServer getInstance(String host, int port, int ioThreads, int workerThreads) {
  		if (instance == null) {
-			instance = new RestServer(host, port);
+			instance = new RestServer(host, port, ioThreads, workerThreads);
 		} else {
 			System.out.println("Instance is not NULL");
 		}
@@ -54,38 +74,65 @@ public class RestServer {
 		this.server.start();
 	}
 
+	/**
+	 * The read-only GETs that are served from memory run directly on the IO threads.
+	 * Only the requests that read a request body, switch devices or read files are dispatched
+	 * to the worker pool by a BlockingHandler.
+	 */
 	private static HttpHandler setRoutes() {
+		EventPublisher publisher = new EventPublisher();
+		Terrarium.addListener(publisher);
 		HttpHandler routes = Handlers.path()
 	        // REST API path
 	        .addPrefixPath("/", Handlers.routing()
-	        		.get("properties", new BlockingHandler(new PropertiesHandler())) //device/{device}/on
-	        		.get("state", new BlockingHandler(new DeviceStateHandler()))
+	        		.get("properties", new PropertiesHandler())
+	        		.get("state", new DeviceStateHandler())
 	        		.post("device/{device}/on", new BlockingHandler(new DeviceStateHandler()))
 	        		.post("device/{device}/off", new BlockingHandler(new DeviceStateHandler()))
 	        		.post("device/{device}/on/{period}", new BlockingHandler(new DeviceStateHandler()))
 	        		.post("device/{device}/manual", new BlockingHandler(new DeviceStateHandler()))
 	        		.post("device/{device}/auto", new BlockingHandler(new DeviceStateHandler()))
 	        		.post("counter/{device}/{hoursOn}", new BlockingHandler(new DeviceStateHandler()))
-	        		.get("sensors", new BlockingHandler(new SensorsHandler()))
+	        		.get("sensors", new SensorsHandler())
 	        		.post("sensors/{room}/{terr}", new BlockingHandler(new SensorsHandler()))
 	        		.post("sensors/auto", new BlockingHandler(new SensorsHandler()))
-	        		.get("timers/{device}", new BlockingHandler(new TimersHandler()))
+	        		.get("timers/{device}", new TimersHandler())
 	        		.post("timers", new BlockingHandler(new TimersHandler()))
-	        		.get("temperaturerule/{nr}", new BlockingHandler(new RulesHandler()))
+	        		.get("temperaturerule/{nr}", new RulesHandler())
 	        		.post("temperaturerule/{nr}", new BlockingHandler(new RulesHandler()))
-	        		.get("sprayerrule", new BlockingHandler(new RulesHandler()))
+	        		.get("sprayerrule", new RulesHandler())
 	        		.post("sprayerrule", new BlockingHandler(new RulesHandler()))
 	        		.get("history/temperature", new BlockingHandler(new HistoryHandler()))
 	        		.get("history/state", new BlockingHandler(new HistoryHandler()))
 	        		.get("history/temperature/{fname}", new BlockingHandler(new HistoryHandler()))
+	        		.get("history/temperature/{from}/{to}/{bucket}", new BlockingHandler(new HistoryHandler()))
 	        		.get("history/state/{fname}", new BlockingHandler(new HistoryHandler()))
+	        		.get("events", publisher.getHandler())
 	        		.setFallbackHandler(RestServer::notFoundHandler))
 	        ;
 		 return routes;
 	}
 
+	/**
+	 * Responses are compressed when the client accepts gzip or deflate, except the small ones
+	 * and the event stream (that would be held back in the compression buffer).
+	 * Responses of unknown length, like the streamed trace files, are compressed while they are sent.
+	 */
+	private static HttpHandler setCompression(HttpHandler next) {
+		Predicate compressible = exchange -> {
+			if (exchange.getRequestPath().equals("/events")) {
+				return false;
+			}
+			String length = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+			return (length == null) || (Long.parseLong(length) >= MIN_COMPRESS_SIZE);
+		};
+		return new EncodingHandler(next, new ContentEncodingRepository()
+				.addEncodingHandler("gzip", new GzipEncodingProvider(), 50, compressible)
+				.addEncodingHandler("deflate", new DeflateEncodingProvider(), 10, compressible));
+	}
+
 	private static  HttpHandler setRoot() {
-		return new AccessLogHandler(setRoutes(),
+		return new AccessLogHandler(setCompression(setRoutes()),
 			new Slf4jAccessLogReceiver(LoggerFactory.getLogger("nl.das.accesslog")), "common",
 			RestServer.class.getClassLoader());
 	}
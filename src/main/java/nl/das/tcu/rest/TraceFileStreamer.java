@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import nl.das.tcu.objects.Terrarium;
+
+/**
+ * Streams a trace file from disk as the value of a JSON string, in chunks through fixed buffers,
+ * so the memory used does not depend on the size of the file.
+ */
+public class TraceFileStreamer {
+
+	public static final int CHUNK_SIZE = 8192;
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Resolve the name of a trace file in the trace folder.
+	 *
+	 * @param fname  name of the file, without a path
+	 * @param prefix expected prefix of the name (temp_ or state_)
+	 * @throws IllegalArgumentException when the name is not the name of a trace file
+	 */
+	public static Path resolve(String fname, String prefix) {
+		if ((fname == null) || !fname.startsWith(prefix) || !fname.matches("[A-Za-z0-9_.-]+") || fname.contains("..")) {
+			throw new IllegalArgumentException("'" + fname + "' is not a valid tracefile name.");
+		}
+		Path folder = Paths.get(Terrarium.traceFolder).toAbsolutePath().normalize();
+		Path file = folder.resolve(fname).normalize();
+		if (!file.getParent().equals(folder)) {
+			throw new IllegalArgumentException("'" + fname + "' is not a valid tracefile name.");
+		}
+		return file;
+	}
+
+	/**
+	 * Write {"content":"&lt;escaped content of the file&gt;"} to the output stream.
+	 */
+	public static void writeContent(Path file, OutputStream out) throws IOException {
+		out.write("{\"content\":\"".getBytes(StandardCharsets.US_ASCII));
+		writeEscaped(file, out);
+		out.write("\"}".getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Write the content of the file escaped as the characters of a JSON string.
+	 * The file is UTF-8, so only the ASCII control characters, quote and backslash need escaping;
+	 * the bytes of multi-byte characters are copied as is.
+	 */
+	public static void writeEscaped(Path file, OutputStream out) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate(CHUNK_SIZE);
+		// worst case every byte becomes a \\u00XX sequence
+		byte[] buf = new byte[CHUNK_SIZE * 6];
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (ch.read(in) != -1) {
+				in.flip();
+				int n = 0;
+				while (in.hasRemaining()) {
+					byte b = in.get();
+					switch (b) {
+					case '"':
+					case '\\':
+						buf[n++] = '\\';
+						buf[n++] = b;
+						break;
+					case '\n':
+						buf[n++] = '\\';
+						buf[n++] = 'n';
+						break;
+					case '\r':
+						buf[n++] = '\\';
+						buf[n++] = 'r';
+						break;
+					case '\t':
+						buf[n++] = '\\';
+						buf[n++] = 't';
+						break;
+					default:
+						if ((b >= 0) && (b < 0x20)) {
+							buf[n++] = '\\';
+							buf[n++] = 'u';
+							buf[n++] = '0';
+							buf[n++] = '0';
+							buf[n++] = HEX[(b >> 4) & 0xF];
+							buf[n++] = HEX[b & 0xF];
+						} else {
+							buf[n++] = b;
+						}
+					}
+				}
+				out.write(buf, 0, n);
+				in.clear();
+			}
+		}
+	}
+}
@@ -9,6 +9,7 @@
 
 package nl.das.tcu.rest.handlers;
 
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 
 import io.undertow.server.HttpHandler;
@@ -28,8 +29,11 @@ public class DeviceStateHandler implements HttpHandler {
 		exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 		if (exchange.getRequestMethod().toString().equalsIgnoreCase("GET")) {
         	try {
+        		if (HandlerUtils.notModified(exchange, HandlerUtils.stateTag())) {
+        			return;
+        		}
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
-				exchange.getResponseSender().send(Terrarium.getInstance().getState());
+				exchange.getResponseSender().send(ByteBuffer.wrap(Terrarium.getInstance().getStateBytes()));
 			} catch (Exception e) {
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
 				exchange.getResponseSender().send(e.getMessage());
@@ -37,24 +41,27 @@ public class DeviceStateHandler implements HttpHandler {
 		} else if (exchange.getRequestMethod().toString().equalsIgnoreCase("POST")) {
         	try {
         		String path = exchange.getRelativePath();
-        		if (path.startsWith("/device")) {
-            		String device = HandlerUtils.getParm(exchange.getQueryParameters(), "device");
-            		if (path.endsWith("/on")) {
-            			Terrarium.getInstance().setDeviceOn(device, DeviceState.ENDTIME_INDEFINITE, DeviceState.NOT_CONTROLLED);
-            		} else if (path.endsWith("/off")) {
-            			Terrarium.getInstance().setDeviceOff(device, DeviceState.NOT_CONTROLLED);
-	           		} else if (path.endsWith("manual")) {
-	           			Terrarium.getInstance().setDeviceManualOn(device);
-            		} else if (path.endsWith("auto")) {
-            			Terrarium.getInstance().setDeviceManualOff(device);
-            		} else {
-            			long period = Long.parseLong(HandlerUtils.getParm(exchange.getQueryParameters(), "period"));
-            			Terrarium.getInstance().setDeviceOn(device, Util.now(LocalDateTime.now()) + period, DeviceState.NOT_CONTROLLED);
-            		}
-        		} else if (path.startsWith("/counter")) {
-        			String device = HandlerUtils.getParm(exchange.getQueryParameters(), "device");
-        			int value = Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "hoursOn"));
-        			Terrarium.getInstance().setLifecycleCounter(device, value);
+        		// Changes are serialized with the control loop
+        		synchronized (Terrarium.CONTROL_LOCK) {
+	        		if (path.startsWith("/device")) {
+	            		String device = HandlerUtils.getParm(exchange.getQueryParameters(), "device");
+	            		if (path.endsWith("/on")) {
+	            			Terrarium.getInstance().setDeviceOn(device, DeviceState.ENDTIME_INDEFINITE, DeviceState.NOT_CONTROLLED);
+	            		} else if (path.endsWith("/off")) {
+	            			Terrarium.getInstance().setDeviceOff(device, DeviceState.NOT_CONTROLLED);
+		           		} else if (path.endsWith("manual")) {
+		           			Terrarium.getInstance().setDeviceManualOn(device);
+	            		} else if (path.endsWith("auto")) {
+	            			Terrarium.getInstance().setDeviceManualOff(device);
+	            		} else {
+	            			long period = Long.parseLong(HandlerUtils.getParm(exchange.getQueryParameters(), "period"));
+	            			Terrarium.getInstance().setDeviceOn(device, Util.now(LocalDateTime.now()) + period, DeviceState.NOT_CONTROLLED);
+	            		}
+	        		} else if (path.startsWith("/counter")) {
+	        			String device = HandlerUtils.getParm(exchange.getQueryParameters(), "device");
+	        			int value = Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "hoursOn"));
+	        			Terrarium.getInstance().setLifecycleCounter(device, value);
+	        		}
         		}
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
 				exchange.getResponseSender().send("{}");
@@ -12,11 +12,22 @@ package nl.das.tcu.rest.handlers;
 import java.util.Deque;
 import java.util.Map;
 
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import nl.das.tcu.objects.Terrarium;
+
 /**
  *
  */
 public class HandlerUtils {
 
+	/**
+	 * The versions start again at 0 after a restart, so the start time is part of the tags.
+	 * A tag of before the restart then never matches.
+	 */
+	private static final String BOOT_EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
 	public static String getParm(Map<String, Deque<String>> parms, String parm) {
 		Deque<String> req= parms.get(parm);
 		String prm = "";
@@ -26,4 +37,54 @@ public class HandlerUtils {
 		return prm;
 	}
 
+	/**
+	 * @return the ETag of the configuration (timers, rules, devices)
+	 */
+	public static String configTag() {
+		return "\"c" + BOOT_EPOCH + "-" + Terrarium.getConfigVersion() + "\"";
+	}
+
+	/**
+	 * @return the ETag of the device state
+	 */
+	public static String stateTag() {
+		return "\"s" + BOOT_EPOCH + "-" + Terrarium.getInstance().getStateVersion() + "\"";
+	}
+
+	/**
+	 * Set the ETag of the response and answer 304 Not Modified when it matches the If-None-Match of the request.
+	 * The tag must be taken before the content is built, so a change during the build causes a new tag.
+	 *
+	 * @return true when the response has been sent and the handler must return
+	 */
+	public static boolean notModified(HttpServerExchange exchange, String etag) {
+		exchange.getResponseHeaders().put(Headers.ETAG, etag);
+		if (matches(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH), etag)) {
+			exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
+			exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+			exchange.endExchange();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param ifNoneMatch value of the If-None-Match header: "*" or a comma separated list of (weak) tags
+	 */
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 }
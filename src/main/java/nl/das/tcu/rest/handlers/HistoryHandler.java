@@ -9,9 +9,11 @@
 
 package nl.das.tcu.rest.handlers;
 
+import java.io.IOException;
 import java.io.StringReader;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,14 +21,20 @@ import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
 
+import org.xnio.IoUtils;
+
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
+import nl.das.tcu.Jsonbs;
 import nl.das.tcu.Util;
+import nl.das.tcu.objects.SensorStore;
+import nl.das.tcu.objects.TemperatureHistory;
 import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.rest.TraceFileStreamer;
 
 /**
  *
@@ -35,7 +43,7 @@ public class HistoryHandler implements HttpHandler {
 
 	@Override
 	public void handleRequest (HttpServerExchange exchange) throws Exception {
-		Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withFormatting(true));
+		Jsonb jsonb = Jsonbs.PRETTY;
 		if (exchange.getRequestMethod().toString().equalsIgnoreCase("GET")) {
         	try {
         		String path = exchange.getRelativePath();
@@ -52,21 +60,24 @@ public class HistoryHandler implements HttpHandler {
     				JsonObject object = jsonReader.readObject();
        				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
     				exchange.getResponseSender().send(Util.parser().toJson(object));
+        		} else if (exchange.getQueryParameters().containsKey("bucket")) {
+        			// history/temperature/{from}/{to}/{bucket}
+        			TemperatureHistory history = TemperatureHistory.of(
+        					HandlerUtils.getParm(exchange.getQueryParameters(), "from"),
+        					HandlerUtils.getParm(exchange.getQueryParameters(), "to"),
+        					Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "bucket")));
+        			history.scan(Terrarium.traceFolder, SensorStore.getInstance());
+       				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+    				exchange.getResponseSender().send(history.toJson());
         		} else if (path.startsWith("/history/temperature/")) {
-        			String fname = HandlerUtils.getParm(exchange.getQueryParameters(), "fname");
-        			String content = Files.readString(Paths.get(Terrarium.traceFolder + "/" + fname));
-    				JsonReader jsonReader = Json.createReader(new StringReader("{\"content\":\"" + content.replace("\n", "\\n") + "\"}"));
-    				JsonObject object = jsonReader.readObject();
-        			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
-    				exchange.getResponseSender().send(Util.parser().toJson(object));
+        			sendTracefile(exchange, "temp_");
         		} else if (path.startsWith("/history/state/")) {
-        			String fname = HandlerUtils.getParm(exchange.getQueryParameters(), "fname");
-        			String content = Files.readString(Paths.get(Terrarium.traceFolder + "/" + fname));
-    				JsonReader jsonReader = Json.createReader(new StringReader("{\"content\":\"" + content.replace("\n", "\\n") + "\"}"));
-    				JsonObject object = jsonReader.readObject();
-        			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
-    				exchange.getResponseSender().send(Util.parser().toJson(object));
+        			sendTracefile(exchange, "state_");
         		}
+			} catch (IllegalArgumentException e) {
+				exchange.setStatusCode(400);
+				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+				exchange.getResponseSender().send(e.getMessage());
 			} catch (Exception e) {
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
 				exchange.getResponseSender().send(e.getMessage());
@@ -74,4 +85,32 @@ public class HistoryHandler implements HttpHandler {
 		}
 	}
 
+	/**
+	 * Send a trace file, streamed from disk in chunks so a large file does not have to fit in memory.
+	 * With ?raw=true the file is sent as is by a zero-copy transfer, otherwise it is sent as
+	 * {"content":"..."}.
+	 */
+	private void sendTracefile(HttpServerExchange exchange, String prefix) throws IOException {
+		Path file = TraceFileStreamer.resolve(HandlerUtils.getParm(exchange.getQueryParameters(), "fname"), prefix);
+		if (HandlerUtils.getParm(exchange.getQueryParameters(), "raw").equalsIgnoreCase("true")) {
+			FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+			exchange.getResponseSender().transferFrom(ch, new IoCallback() {
+				@Override
+				public void onComplete(HttpServerExchange exch, Sender sender) {
+					IoUtils.safeClose(ch);
+					IoCallback.END_EXCHANGE.onComplete(exch, sender);
+				}
+
+				@Override
+				public void onException(HttpServerExchange exch, Sender sender, IOException e) {
+					IoUtils.safeClose(ch);
+					IoCallback.END_EXCHANGE.onException(exch, sender, e);
+				}
+			});
+		} else {
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			TraceFileStreamer.writeContent(file, exchange.getOutputStream());
+		}
+	}
 }
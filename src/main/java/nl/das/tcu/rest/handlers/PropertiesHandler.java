@@ -24,6 +24,9 @@ public class PropertiesHandler implements HttpHandler {
 		exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 		if (exchange.getRequestMethod().toString().equalsIgnoreCase("GET")) {
         	try {
+        		if (HandlerUtils.notModified(exchange, HandlerUtils.configTag())) {
+        			return;
+        		}
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 				exchange.getResponseSender().send(Terrarium.getInstance().getProperties());
 			} catch (Exception e) {
@@ -27,6 +27,9 @@ public class RulesHandler implements HttpHandler {
 		exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 		if (exchange.getRequestMethod().toString().equalsIgnoreCase("GET")) {
         	try {
+        		if (HandlerUtils.notModified(exchange, HandlerUtils.configTag())) {
+        			return;
+        		}
         		String path = exchange.getRelativePath();
         		if (path.startsWith("/temperaturerule/")) {
         			int nr = Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "nr"));
@@ -44,11 +47,17 @@ public class RulesHandler implements HttpHandler {
         		if (path.startsWith("/temperaturerule/")) {
             		String json = new String(exchange.getInputStream().readAllBytes());
         			int nr = Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "nr"));
-        			Terrarium.getInstance().replaceRule(nr, Util.parser().fromJson(json, TemperatureRule.class));
+        			TemperatureRule rule = Util.parser().fromJson(json, TemperatureRule.class);
+        			synchronized (Terrarium.CONTROL_LOCK) {
+        				Terrarium.getInstance().replaceRule(nr, rule);
+        			}
         			Terrarium.getInstance().saveSettings();
         		} else if (path.equalsIgnoreCase("/sprayerrule")) {
             		String json = new String(exchange.getInputStream().readAllBytes());
-	        		Terrarium.getInstance().setSprayerRule(Util.parser().fromJson(json, SprayerRule.class));
+	        		SprayerRule rule = Util.parser().fromJson(json, SprayerRule.class);
+	        		synchronized (Terrarium.CONTROL_LOCK) {
+	        			Terrarium.getInstance().setSprayerRule(rule);
+	        		}
 	        		Terrarium.getInstance().saveSettings();
         		}
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
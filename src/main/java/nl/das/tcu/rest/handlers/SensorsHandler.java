@@ -9,10 +9,11 @@
 
 package nl.das.tcu.rest.handlers;
 
+import java.nio.ByteBuffer;
+
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
-import nl.das.tcu.Util;
 import nl.das.tcu.objects.Terrarium;
 
 /**
@@ -27,7 +28,7 @@ public class SensorsHandler implements HttpHandler {
 		if (exchange.getRequestMethod().toString().equalsIgnoreCase("GET")) {
         	try {
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
-				exchange.getResponseSender().send(Util.parser().toJson(Terrarium.getInstance().getSensors()));
+				exchange.getResponseSender().send(ByteBuffer.wrap(Terrarium.getInstance().getSensorsJson()));
 			} catch (Exception e) {
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
 				exchange.getResponseSender().send(e.getMessage());
@@ -39,7 +40,9 @@ public class SensorsHandler implements HttpHandler {
         		} else if (path.startsWith("/sensors/")) {
         			int room = Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "room"));
         			int terr = Integer.parseInt(HandlerUtils.getParm(exchange.getQueryParameters(), "terr"));
-        			Terrarium.getInstance().setSensors(room, terr);
+        			synchronized (Terrarium.CONTROL_LOCK) {
+        				Terrarium.getInstance().setSensors(room, terr);
+        			}
         		}
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 				exchange.getResponseSender().send("{}");
@@ -15,14 +15,14 @@ import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
 
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
+import nl.das.tcu.Jsonbs;
 import nl.das.tcu.Util;
 import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.objects.Timer;
 import nl.das.tcu.objects.TimerArray;
 
 /**
@@ -32,10 +32,13 @@ public class TimersHandler implements HttpHandler {
 
 	@Override
 	public void handleRequest (HttpServerExchange exchange) throws Exception {
-		Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withFormatting(true));
+		Jsonb jsonb = Jsonbs.PRETTY;
 		exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 		if (exchange.getRequestMethod().toString().equalsIgnoreCase("GET")) {
         	try {
+        		if (HandlerUtils.notModified(exchange, HandlerUtils.configTag())) {
+        			return;
+        		}
         		String path = exchange.getRelativePath();
         		if (path.startsWith("/timers/")) {
         			String device = HandlerUtils.getParm(exchange.getQueryParameters(), "device");
@@ -50,7 +53,10 @@ public class TimersHandler implements HttpHandler {
 		} else if (exchange.getRequestMethod().toString().equalsIgnoreCase("POST")) {
         	try {
         		String json = new String(exchange.getInputStream().readAllBytes());
-        		Terrarium.getInstance().replaceTimers(Util.parser().fromJson(json, TimerArray.class).getTimers());
+        		Timer[] timers = Util.parser().fromJson(json, TimerArray.class).getTimers();
+        		synchronized (Terrarium.CONTROL_LOCK) {
+        			Terrarium.getInstance().replaceTimers(timers);
+        		}
 				exchange.getResponseSender().send("{}");
 			} catch (Exception e) {
 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.rest.BTServer;
+
+/**
+ *
+ */
+public class BTServerTest {
+
+	private static Terrarium terrarium;
+
+	@BeforeAll
+	public static void start () throws IOException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		terrarium.initDeviceState();
+		terrarium.initSensors(true);
+		terrarium.setTrace(false);
+	}
+
+	@Test
+	public void testCompressedResponse () throws IOException, JSONException {
+		byte[] plain = frame("{\"msgId\":\"6f1c1d4e-8f0a-4a52-9d67-2b0c6a0c2d11\",\"cmd\":\"getProperties\"}");
+		byte[] compressed = frame("{\"msgId\":\"6f1c1d4e-8f0a-4a52-9d67-2b0c6a0c2d11\",\"cmd\":\"getProperties\",\"compress\":true}");
+		// A gzip stream in base64 always starts with H4sI
+		assertTrue(new String(compressed, StandardCharsets.US_ASCII).startsWith("H4sI"));
+		byte[] unzipped;
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(compressed)))) {
+			unzipped = in.readAllBytes();
+		}
+		JSONAssert.assertEquals(new String(plain, StandardCharsets.UTF_8), new String(unzipped, StandardCharsets.UTF_8), true);
+		JSONObject res = new JSONObject(new String(unzipped, StandardCharsets.UTF_8));
+		assertEquals("getProperties", res.getString("command"));
+		JSONAssert.assertEquals(terrarium.getProperties(), res.getJSONObject("response"), true);
+	}
+
+	@Test
+	public void testInvalidTracefileName () throws IOException, JSONException {
+		byte[] res = frame("{\"cmd\":\"getStateFile\",\"data\":{\"fname\":\"../settings.json\"}}");
+		assertTrue(new JSONObject(new String(res, StandardCharsets.UTF_8)).getJSONObject("response").has("error"));
+	}
+
+	@Test
+	public void testMutatingCommand () throws IOException, JSONException {
+		byte[] res = frame("{\"cmd\":\"setDeviceOn\",\"data\":{\"device\":\"light2\"}}");
+		assertEquals(0, new JSONObject(new String(res, StandardCharsets.UTF_8)).getJSONObject("response").length());
+		assertTrue(terrarium.isDeviceOn("light2"));
+		frame("{\"cmd\":\"setDeviceOff\",\"data\":{\"device\":\"light2\"}}");
+		assertFalse(terrarium.isDeviceOn("light2"));
+	}
+
+	@Test
+	public void testInvalidCommand () throws IOException, JSONException {
+		byte[] res = frame("{\"cmd\":");
+		assertTrue(new JSONObject(new String(res, StandardCharsets.UTF_8)).getJSONObject("response").has("error"));
+	}
+
+	@Test
+	public void testFailedTracefileTransfer (@TempDir Path dir) throws IOException {
+		String folder = Terrarium.traceFolder;
+		Terrarium.traceFolder = dir.toString();
+		try {
+			Files.writeString(dir.resolve("state_20210801"), "2021-08-01 10:00:00 light1 on\n".repeat(1000));
+			ByteArrayOutputStream written = new ByteArrayOutputStream();
+			// One write fails during the transfer
+			OutputStream out = new OutputStream() {
+				private boolean failed;
+
+				@Override
+				public void write(int b) throws IOException {
+					if (!this.failed && (written.size() == 1000)) {
+						this.failed = true;
+						throw new IOException("Write failed");
+					}
+					written.write(b);
+				}
+			};
+			assertThrows(IOException.class, () -> BTServer.handleCommand("{\"cmd\":\"getStateFile\",\"data\":{\"fname\":\"state_20210801\"}}", out));
+			// No second response after the partial one
+			String s = written.toString(StandardCharsets.UTF_8);
+			assertTrue(s.contains("\"command\":\"getStateFile\",\"response\":{\"content\":"));
+			assertEquals(s.indexOf("\"command\""), s.lastIndexOf("\"command\""));
+		} finally {
+			Terrarium.traceFolder = folder;
+		}
+	}
+
+	/**
+	 * @return the response frame without the ETX
+	 */
+	private static byte[] frame (String command) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BTServer.handleCommand(command, out);
+		byte[] bytes = out.toByteArray();
+		assertEquals(0x03, bytes[bytes.length - 1]);
+		return Arrays.copyOf(bytes, bytes.length - 1);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.objects.TemperatureRule;
+import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.objects.Timer;
+import nl.das.tcu.rest.BinaryProtocol;
+import nl.das.tcu.rest.FrameDecoder;
+
+/**
+ *
+ */
+public class BinaryProtocolTest {
+
+	private static Terrarium terrarium;
+	private static String[] devices;
+
+	@BeforeAll
+	public static void start () throws IOException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		terrarium.initDeviceState();
+		terrarium.initSensors(true);
+		terrarium.setTrace(false);
+		devices = Terrarium.cfg.getDeviceList();
+	}
+
+	@Test
+	public void testRuleRoundTrip () throws IOException {
+		TemperatureRule rule = terrarium.getRule(1);
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		BinaryProtocol.writeRule(rule, devices, new DataOutputStream(buf));
+		TemperatureRule copy = BinaryProtocol.readRule(ByteBuffer.wrap(buf.toByteArray()), devices);
+		assertEquals(Util.parser().toJson(rule), Util.parser().toJson(copy));
+	}
+
+	@Test
+	public void testInvalidRuleTime () throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(buf);
+		dout.writeByte(BinaryProtocol.SAVE_TEMPERATURE_RULE);
+		dout.writeShort(13);
+		dout.writeByte(1);
+		BinaryProtocol.writeRule(terrarium.getRule(1), devices, dout);
+		byte[] req = buf.toByteArray();
+		// from is 24:00
+		req[5] = (byte) (1440 >> 8);
+		req[6] = (byte) (1440 & 0xFF);
+		String before = Util.parser().toJson(terrarium.getRule(1));
+		ByteBuffer res = execute(ByteBuffer.wrap(req));
+		assertEquals(BinaryProtocol.STATUS_ERROR, res.get(3));
+		assertEquals(before, Util.parser().toJson(terrarium.getRule(1)));
+		assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.readRule(ByteBuffer.wrap(req, 4, req.length - 4), devices));
+	}
+
+	@Test
+	public void testTimersRoundTrip () throws IOException {
+		Timer[] timers = terrarium.getTimersForDevice("light1");
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		BinaryProtocol.writeTimers(timers, new DataOutputStream(buf));
+		Timer[] copy = BinaryProtocol.readTimers("light1", ByteBuffer.wrap(buf.toByteArray()));
+		assertEquals(Util.parser().toJson(timers), Util.parser().toJson(copy));
+	}
+
+	@Test
+	public void testCommands () throws IOException, JSONException {
+		terrarium.setSensors(21, 26);
+		ByteBuffer res = execute(request(BinaryProtocol.GET_SENSORS, 7));
+		assertEquals(BinaryProtocol.GET_SENSORS, res.get());
+		assertEquals(7, res.getShort());
+		assertEquals(BinaryProtocol.STATUS_OK, res.get());
+		assertEquals(21, res.getShort());
+		res.get();
+		assertEquals(26, res.getShort());
+
+		int light3 = terrarium.getDeviceIndex("light3");
+		res = execute(request(BinaryProtocol.SET_DEVICE_ON, 8, light3));
+		assertEquals(BinaryProtocol.STATUS_OK, res.get(3));
+		assertTrue(terrarium.isDeviceOn("light3"));
+		res = execute(request(BinaryProtocol.GET_STATE, 9));
+		res.position(4);
+		assertEquals(0, res.get()); // trace
+		assertEquals(devices.length, res.get());
+		res.position(res.position() + (light3 * 14));
+		assertEquals(1, res.get() & 1);
+		execute(request(BinaryProtocol.SET_DEVICE_OFF, 10, light3));
+
+		// Unknown device
+		res = execute(request(BinaryProtocol.SET_DEVICE_ON, 11, 200));
+		assertEquals(BinaryProtocol.STATUS_ERROR, res.get(3));
+
+		// A JSON command
+		byte[] json = "{\"cmd\":\"getProperties\"}".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer req = ByteBuffer.allocate(3 + json.length);
+		req.put((byte) BinaryProtocol.JSON).putShort((short) 12).put(json).flip();
+		res = execute(req);
+		assertEquals(BinaryProtocol.STATUS_OK, res.get(3));
+		res.position(4);
+		JSONObject obj = new JSONObject(StandardCharsets.UTF_8.decode(res).toString());
+		assertEquals("getProperties", obj.getString("command"));
+	}
+
+	@Test
+	public void testMixedFrames () throws IOException {
+		ByteArrayOutputStream in = new ByteArrayOutputStream();
+		in.write("{\"cmd\":\"setProtocol\",\"data\":{\"protocol\":\"binary\"}}\u0003".getBytes(StandardCharsets.UTF_8));
+		DataOutputStream dout = new DataOutputStream(in);
+		dout.writeInt(3);
+		dout.write(new byte[] { BinaryProtocol.GET_STATE, 0, 1 });
+		dout.writeInt(1);
+		dout.write(0x03);
+		FrameDecoder dec = new FrameDecoder(new ByteArrayInputStream(in.toByteArray()));
+		assertTrue(dec.readFrame().contains("setProtocol"));
+		assertEquals(3, dec.readBinaryFrame().remaining());
+		ByteBuffer f = dec.readBinaryFrame();
+		assertEquals(1, f.remaining());
+		assertEquals(0x03, f.get());
+		assertNull(dec.readBinaryFrame());
+	}
+
+	private static ByteBuffer request (int code, int id, int... args) {
+		ByteBuffer req = ByteBuffer.allocate(3 + args.length);
+		req.put((byte) code).putShort((short) id);
+		for (int a : args) {
+			req.put((byte) a);
+		}
+		return req.flip();
+	}
+
+	/**
+	 * @return the response frame without the length
+	 */
+	private static ByteBuffer execute (ByteBuffer req) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryProtocol.handleFrame(req, out);
+		ByteBuffer res = ByteBuffer.wrap(out.toByteArray());
+		assertEquals(res.remaining() - 4, res.getInt());
+		return res.slice();
+	}
+}
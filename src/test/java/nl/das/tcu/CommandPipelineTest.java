@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.rest.Command;
+import nl.das.tcu.rest.CommandPipeline;
+
+/**
+ *
+ */
+public class CommandPipelineTest {
+
+	private static ExecutorService executor;
+
+	@BeforeAll
+	public static void start () throws IOException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		Terrarium terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		terrarium.initDeviceState();
+		terrarium.initSensors(true);
+		terrarium.setTrace(false);
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterAll
+	public static void after () {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testPipelined () throws IOException, JSONException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CommandPipeline pipeline = new CommandPipeline(out, executor, 4);
+		Map<String, String> sent = new HashMap<>();
+		for (int i = 0; i < 20; i++) {
+			String cmd = (i % 2) == 0 ? "getProperties" : "getSprayerRule";
+			sent.put(submit(pipeline, cmd, null), cmd);
+		}
+		// A read after a change sees the change
+		sent.put(submit(pipeline, "setDeviceOn", "{\"device\":\"light4\"}"), "setDeviceOn");
+		String stateId = submit(pipeline, "getState", null);
+		sent.put(stateId, "getState");
+		pipeline.drain();
+
+		String[] frames = out.toString(StandardCharsets.UTF_8).split("\u0003");
+		assertEquals(sent.size(), frames.length);
+		for (String f : frames) {
+			JSONObject res = new JSONObject(f);
+			String cmd = sent.remove(res.getString("msgId"));
+			assertEquals(cmd, res.getString("command"));
+			if (res.getString("msgId").equals(stateId)) {
+				JSONArray state = res.getJSONObject("response").getJSONArray("state");
+				for (int i = 0; i < state.length(); i++) {
+					if (state.getJSONObject(i).getString("device").equals("light4")) {
+						assertEquals("on", state.getJSONObject(i).getString("state"));
+					}
+				}
+			}
+		}
+		assertTrue(sent.isEmpty());
+		Terrarium.getInstance().setDeviceOff("light4", 0);
+	}
+
+	@Test
+	public void testFailedCommand () throws IOException, JSONException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CommandPipeline pipeline = new CommandPipeline(out, executor, 2);
+		// The quote in the name breaks the error response of the command, so it fails with a RuntimeException
+		for (int i = 0; i < 4; i++) {
+			submit(pipeline, "bad\\\"cmd", null);
+		}
+		// A change after the failed commands still runs
+		String onId = submit(pipeline, "setDeviceOn", "{\"device\":\"light4\"}");
+		pipeline.drain();
+
+		String[] frames = out.toString(StandardCharsets.UTF_8).split("\u0003");
+		assertEquals(5, frames.length);
+		int errors = 0;
+		for (String f : frames) {
+			JSONObject res = new JSONObject(f);
+			if (res.has("msgId") && res.getString("msgId").equals(onId)) {
+				assertEquals("setDeviceOn", res.getString("command"));
+			} else {
+				assertTrue(res.getJSONObject("response").has("error"));
+				errors++;
+			}
+		}
+		assertEquals(4, errors);
+		Terrarium.getInstance().setDeviceOff("light4", 0);
+	}
+
+	@Test
+	public void testLargeResponse (@TempDir Path dir) throws IOException, JSONException {
+		String folder = Terrarium.traceFolder;
+		Terrarium.traceFolder = dir.toString();
+		try {
+			// Larger than the buffered size, so it is written directly
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() <= (2 * CommandPipeline.MAX_BUFFERED_RESPONSE)) {
+				sb.append("2021-08-01 10:00:00 r=21 t=26\n");
+			}
+			Files.writeString(dir.resolve("temp_20210801"), sb.toString());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			CommandPipeline pipeline = new CommandPipeline(out, executor, 4);
+			Map<String, String> sent = new HashMap<>();
+			for (int i = 0; i < 10; i++) {
+				String cmd = i == 3 ? "getTemperatureFile" : "getState";
+				sent.put(submit(pipeline, cmd, i == 3 ? "{\"fname\":\"temp_20210801\"}" : null), cmd);
+			}
+			pipeline.drain();
+
+			String[] frames = out.toString(StandardCharsets.UTF_8).split("\u0003");
+			assertEquals(sent.size(), frames.length);
+			for (String f : frames) {
+				JSONObject res = new JSONObject(f);
+				String cmd = sent.remove(res.getString("msgId"));
+				assertEquals(cmd, res.getString("command"));
+				if (cmd.equals("getTemperatureFile")) {
+					assertEquals(sb.toString(), res.getJSONObject("response").getString("content"));
+				}
+			}
+			assertTrue(sent.isEmpty());
+		} finally {
+			Terrarium.traceFolder = folder;
+		}
+	}
+
+	private static String submit (CommandPipeline pipeline, String cmd, String data) throws IOException {
+		String id = UUID.randomUUID().toString();
+		pipeline.submit(Jsonbs.PRETTY.fromJson("{\"msgId\":\"" + id + "\",\"cmd\":\"" + cmd + "\""
+				+ (data == null ? "" : ",\"data\":" + data) + "}", Command.class));
+		return id;
+	}
+}
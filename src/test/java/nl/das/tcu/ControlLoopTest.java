@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ */
+public class ControlLoopTest {
+
+	@Test
+	public void testNextBoundary() {
+		// 12:34:56.789 UTC
+		long now = ((12 * 3600L) + (34 * 60L) + 56L) * 1000L + 789L;
+		assertEquals(((12 * 3600L) + (34 * 60L) + 57L) * 1000L, ControlLoop.nextBoundary(now, 1000L, 0L), "Next second");
+		assertEquals(((12 * 3600L) + (35 * 60L)) * 1000L, ControlLoop.nextBoundary(now, 60000L, 0L), "Next minute");
+		assertEquals((13 * 3600L) * 1000L, ControlLoop.nextBoundary(now, 3600000L, 0L), "Next hour");
+		// Local time is UTC+05:30, so the next full local hour is 13:00 local = 07:30 UTC
+		long offset = ((5 * 3600L) + (30 * 60L)) * 1000L;
+		assertEquals(((7 * 3600L) + (30 * 60L)) * 1000L, ControlLoop.nextBoundary(((7 * 3600L) + 60L) * 1000L, 3600000L, offset), "Next local hour");
+		// Exactly on a boundary gives the next one
+		assertEquals(2000L, ControlLoop.nextBoundary(1000L, 1000L, 0L), "Next second on boundary");
+	}
+
+	@Test
+	public void testClockStep() {
+		long deadline = 60000L;
+		// In time or an overrun is not a step
+		assertFalse(ControlLoop.isClockStep(deadline, 1000L, deadline + 20L, 0L));
+		assertFalse(ControlLoop.isClockStep(deadline, 1000L, deadline + 5000L, 10L));
+		// The wall clock stepped back an hour: the next deadline would be an hour away
+		assertTrue(ControlLoop.isClockStep(deadline, 1000L, deadline - 3600000L, -3600000L));
+		// A next deadline more than a period ahead is always a step back
+		assertTrue(ControlLoop.isClockStep(deadline, 1000L, deadline - 1500L, 0L));
+		// The wall clock stepped forward an hour
+		assertTrue(ControlLoop.isClockStep(deadline, 1000L, deadline + 3600000L, 3600000L));
+	}
+
+	@Test
+	public void testCoalesceLateTicks() throws InterruptedException {
+		AtomicInteger runs = new AtomicInteger();
+		ControlLoop loop = new ControlLoop();
+		ControlLoop.Lane lane = loop.addLane("test", 50L, () -> {
+			if (runs.incrementAndGet() == 1) {
+				try {
+					// Overrun at least 2 deadlines
+					Thread.sleep(175);
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		loop.start();
+		Thread.sleep(600);
+		loop.stop();
+		assertTrue(lane.getCoalesced() >= 2, "Missed ticks should be coalesced: " + lane);
+		assertEquals(runs.get(), lane.getTicks(), "Ticks");
+		assertTrue(lane.getMaxDuration() >= 175, "Max duration: " + lane);
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.hw.CpuTemp;
+
+/**
+ *
+ */
+public class CpuTempTest {
+
+	@Test
+	public void testRead() throws IOException {
+		Path file = Files.createTempFile("temp_", "");
+		CpuTemp cpu = new CpuTemp(file.toString());
+		try {
+			Files.writeString(file, "48312\n");
+			assertEquals(48312, cpu.readMillis());
+			assertEquals(48, cpu.getTemperature());
+			// The open file is read again from the start
+			Files.writeString(file, "51500\n");
+			assertEquals(52, cpu.getTemperature());
+			Files.writeString(file, "-2000\n");
+			assertEquals(-2000, cpu.readMillis());
+			Files.writeString(file, "\n");
+			assertThrows(IOException.class, () -> cpu.readMillis());
+		} finally {
+			cpu.close();
+			Files.deleteIfExists(file);
+		}
+		assertThrows(IOException.class, () -> cpu.readMillis());
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.hw.DHT22;
+
+/**
+ *
+ */
+public class DHT22Test {
+
+	// 63.9 % and 10.0 C: the sum of the bytes is more than 127
+	private static final byte[] READING = { 0x02, 0x7F, 0x00, 0x64, (byte) 0xE5 };
+
+	@Test
+	public void testDecode() throws IOException {
+		byte[] data = new byte[5];
+		DHT22.decode(edges(READING, 27000, 70000, 0), DHT22.NR_OF_EDGES, data);
+		assertArrayEquals(READING, data);
+		assertTrue(DHT22.isParityOk(data));
+	}
+
+	@Test
+	public void testDecodeSlowRead() throws IOException {
+		// All high times stretched beyond the fixed threshold of 50 us, with jitter
+		byte[] data = new byte[5];
+		long threshold = DHT22.decode(edges(READING, 55000, 100000, 6000), DHT22.NR_OF_EDGES, data);
+		assertArrayEquals(READING, data);
+		assertTrue((threshold > 61000) && (threshold < 94000), "Threshold " + threshold);
+	}
+
+	@Test
+	public void testDecodeErrors() {
+		byte[] data = new byte[5];
+		assertThrows(IOException.class, () -> DHT22.decode(new long[DHT22.NR_OF_EDGES], 41, data));
+		byte[] wrong = READING.clone();
+		wrong[4]++;
+		assertFalse(DHT22.isParityOk(wrong));
+	}
+
+	/**
+	 * Edge times of a read of the bytes, with a high time of zero or one plus a jitter that alternates in sign.
+	 */
+	private static long[] edges(byte[] bytes, long zero, long one, long jitter) {
+		long[] edges = new long[DHT22.NR_OF_EDGES];
+		long t = 1000000L;
+		for (int i = 0; i < 40; i++) {
+			boolean bit = ((bytes[i / 8] >> (7 - (i % 8))) & 1) != 0;
+			t += 50000;
+			edges[2 * i] = t;
+			t += (bit ? one : zero) + ((i % 2) == 0 ? jitter : -jitter);
+			edges[(2 * i) + 1] = t;
+		}
+		return edges;
+	}
+}
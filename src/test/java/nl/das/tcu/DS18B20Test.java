@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.pi4j.io.w1.W1Master;
+
+import nl.das.tcu.hw.DS18B20;
+
+/**
+ *
+ */
+public class DS18B20Test {
+
+	@Test
+	public void testParse() throws IOException {
+		assertEquals(23.125, DS18B20.parse("72 01 4b 46 7f ff 0e 10 57 : crc=57 YES\n72 01 4b 46 7f ff 0e 10 57 t=23125\n"));
+		assertEquals(-1.5, DS18B20.parse("e8 ff 4b 46 7f ff 08 10 b1 : crc=b1 YES\ne8 ff 4b 46 7f ff 08 10 b1 t=-1500\n"));
+		assertThrows(IOException.class, () -> DS18B20.parse("72 01 4b 46 7f ff 0e 10 57 : crc=00 NO\n72 01 4b 46 7f ff 0e 10 57 t=23125\n"));
+	}
+
+	@Test
+	public void testProbes(@TempDir Path dir) throws IOException {
+		probe(dir, "28-000000000002", 26500);
+		probe(dir, "28-000000000001", 21000);
+		// The reads run on the calling thread, so a read ahead is done when getTemperatures returns
+		DS18B20 ds = new DS18B20(new W1Master(dir.toString()), Runnable::run);
+		assertEquals(List.of("28-000000000001", "28-000000000002"), ds.getIds());
+		assertArrayEquals(new double[] { 21.0, 26.5 }, ds.getTemperatures());
+		// The next reads are already done, so they return the old values
+		probe(dir, "28-000000000001", 22000);
+		assertArrayEquals(new double[] { 21.0, 26.5 }, ds.getTemperatures());
+		assertArrayEquals(new double[] { 22.0, 26.5 }, ds.getTemperatures());
+		// A failed read discovers the probes again
+		Path gone = dir.resolve("28-000000000002");
+		Files.delete(gone.resolve("name"));
+		Files.delete(gone.resolve("w1_slave"));
+		Files.delete(gone);
+		ds.getTemperatures();
+		assertArrayEquals(new double[] { 22.0, 0.0 }, ds.getTemperatures());
+		assertEquals(List.of("28-000000000001"), ds.getIds());
+		assertEquals(22.0, ds.getTemperature());
+	}
+
+	@Test
+	public void testHangingRead(@TempDir Path dir) throws IOException {
+		probe(dir, "28-000000000001", 21000);
+		probe(dir, "28-000000000002", 26500);
+		// The reads are held, as if they hang in the kernel
+		List<Runnable> reads = new ArrayList<>();
+		DS18B20 ds = new DS18B20(new W1Master(dir.toString()), reads::add, 10);
+		assertArrayEquals(new double[] { 0.0, 0.0 }, ds.getTemperatures());
+		assertArrayEquals(new double[] { 0.0, 0.0 }, ds.getTemperatures());
+		// A read is not started again while it is still running
+		assertEquals(2, reads.size());
+		reads.forEach(Runnable::run);
+		reads.clear();
+		assertArrayEquals(new double[] { 21.0, 26.5 }, ds.getTemperatures());
+		// Only the read aheads are started
+		assertEquals(2, reads.size());
+	}
+
+	private static void probe(Path dir, String id, int millis) throws IOException {
+		Path d = Files.createDirectories(dir.resolve(id));
+		Files.writeString(d.resolve("name"), id + "\n");
+		Files.writeString(d.resolve("w1_slave"), "72 01 4b 46 7f ff 0e 10 57 : crc=57 YES\n72 01 4b 46 7f ff 0e 10 57 t=" + millis + "\n");
+	}
+}
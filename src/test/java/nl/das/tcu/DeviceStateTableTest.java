@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.objects.DeviceState;
+import nl.das.tcu.objects.DeviceStateTable;
+
+/**
+ *
+ */
+public class DeviceStateTableTest {
+
+	@Test
+	public void testPacking() {
+		DeviceStateTable table = new DeviceStateTable(new String[] {"light1", "uvlight", "sprayer"});
+		assertFalse(table.isOn(0));
+		assertEquals(DeviceState.NOT_CONTROLLED, table.getControlledBy(0));
+
+		table.setLifetime(1, 4000);
+		table.setManual(1, true);
+		table.switchState(1, 1_627_797_600L, DeviceState.CONTROLLED_BY_TIMER);
+		assertTrue(table.isOn(1));
+		assertEquals(1_627_797_600L, table.getEndtime(1));
+		assertEquals(DeviceState.CONTROLLED_BY_TIMER, table.getControlledBy(1));
+		assertTrue(table.isManual(1));
+		assertEquals(4000, table.getLifetime(1));
+
+		table.switchState(2, DeviceState.ENDTIME_UNTIL_IDEAL, 3);
+		assertTrue(table.isOn(2));
+		assertEquals(DeviceState.ENDTIME_UNTIL_IDEAL, table.getEndtime(2));
+		table.switchState(2, DeviceState.ENDTIME_INDEFINITE, DeviceState.CONTROLLED_BY_SPRAYER_RULE);
+		assertEquals(DeviceState.ENDTIME_INDEFINITE, table.getEndtime(2));
+		assertEquals(DeviceState.CONTROLLED_BY_SPRAYER_RULE, table.getControlledBy(2));
+
+		table.setLifetime(1, 2);
+		table.decreaseLifetime(1, 5);
+		assertEquals(-3, table.getLifetime(1));
+		// The other fields are left alone
+		assertEquals(1_627_797_600L, table.getEndtime(1));
+		assertTrue(table.isManual(1));
+		assertFalse(table.isOn(0));
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.objects.DeviceTimerWheel;
+
+/**
+ *
+ */
+public class DeviceTimerWheelTest {
+
+	private static final long T0 = 1_627_797_600L; // 2021-08-01 06:00:00 UTC
+
+	@Test
+	public void testExpireInOrder() {
+		DeviceTimerWheel wheel = new DeviceTimerWheel(100);
+		wheel.advance(T0);
+		for (int d = 0; d < 100; d++) {
+			wheel.schedule(d, T0 + 1 + d);
+		}
+		assertEquals(100, wheel.size());
+		for (int d = 0; d < 100; d++) {
+			assertEquals(1, wheel.advance(T0 + 1 + d), "One device per second");
+			assertEquals(d, wheel.getExpired()[0], "Expired device");
+		}
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testRescheduleAndCancel() {
+		DeviceTimerWheel wheel = new DeviceTimerWheel(3);
+		wheel.advance(T0);
+		wheel.schedule(0, T0 + 10);
+		wheel.schedule(1, T0 + 10);
+		wheel.schedule(2, T0 + 10);
+		wheel.schedule(1, T0 + 20);
+		wheel.cancel(2);
+		assertEquals(1, wheel.advance(T0 + 15));
+		assertEquals(0, wheel.getExpired()[0]);
+		assertTrue(wheel.isScheduled(1));
+		assertFalse(wheel.isScheduled(2));
+		assertEquals(1, wheel.advance(T0 + 20));
+		assertEquals(1, wheel.getExpired()[0]);
+	}
+
+	@Test
+	public void testFarEndtimeAndTimeJumps() {
+		DeviceTimerWheel wheel = new DeviceTimerWheel(2);
+		wheel.advance(T0);
+		// More than one revolution away
+		wheel.schedule(0, T0 + DeviceTimerWheel.WHEEL_SIZE + 5);
+		// Already passed
+		wheel.schedule(1, T0 - 5);
+		assertEquals(1, wheel.advance(T0 + 1));
+		assertEquals(1, wheel.getExpired()[0]);
+		// Seconds on the same slot one revolution earlier do not expire it
+		assertEquals(0, wheel.advance(T0 + 5));
+		// Time jumps backwards
+		assertEquals(0, wheel.advance(T0 - 3600));
+		// and forward past the end time
+		assertEquals(1, wheel.advance(T0 + 7200));
+		assertEquals(0, wheel.getExpired()[0]);
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.rest.FrameDecoder;
+
+/**
+ *
+ */
+public class FrameDecoderTest {
+
+	@Test
+	public void testFramesInOneBlock () throws IOException {
+		FrameDecoder dec = new FrameDecoder(stream("{\"cmd\":\"getState\"}\u0003{\"cmd\":\"getSensors\"}\u0003\u0003", 1024));
+		assertEquals("{\"cmd\":\"getState\"}", dec.readFrame());
+		assertEquals("{\"cmd\":\"getSensors\"}", dec.readFrame());
+		assertEquals("", dec.readFrame());
+		assertNull(dec.readFrame());
+	}
+
+	@Test
+	public void testSplitUtf8 () throws IOException {
+		// Every read returns 1 byte, so the 2 and 3 byte characters are split over reads
+		FrameDecoder dec = new FrameDecoder(stream("{\"name\":\"Gekko é €\"}\u0003rest", 1));
+		assertEquals("{\"name\":\"Gekko é €\"}", dec.readFrame());
+		// An unterminated frame at the end of the stream is dropped
+		assertNull(dec.readFrame());
+	}
+
+	@Test
+	public void testFrameTooLarge () throws IOException {
+		String big = "x".repeat(100);
+		FrameDecoder dec = new FrameDecoder(stream("12345678\u0003" + big + "\u0003ok\u0003", 7), 8);
+		assertEquals("12345678", dec.readFrame());
+		assertThrows(FrameDecoder.FrameTooLargeException.class, () -> dec.readFrame());
+		assertEquals("ok", dec.readFrame());
+		assertNull(dec.readFrame());
+	}
+
+	@Test
+	public void testCompaction () throws IOException {
+		// Frames that together are larger than the buffer
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("frame").append(i).append('\u0003');
+		}
+		FrameDecoder dec = new FrameDecoder(stream(sb.toString(), 5), 16);
+		for (int i = 0; i < 100; i++) {
+			assertEquals("frame" + i, dec.readFrame());
+		}
+		assertNull(dec.readFrame());
+	}
+
+	/**
+	 * @return a stream that returns at most blockSize bytes per read
+	 */
+	private static InputStream stream (String s, int blockSize) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, blockSize));
+			}
+		};
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.rest.handlers.HandlerUtils;
+
+/**
+ *
+ */
+public class HandlerUtilsTest {
+
+	@Test
+	public void testIfNoneMatch() {
+		assertFalse(HandlerUtils.matches(null, "\"c12\""));
+		assertTrue(HandlerUtils.matches("\"c12\"", "\"c12\""));
+		assertFalse(HandlerUtils.matches("\"c11\"", "\"c12\""));
+		assertTrue(HandlerUtils.matches("\"s3\", \"c12\"", "\"c12\""));
+		assertTrue(HandlerUtils.matches("W/\"c12\"", "\"c12\""));
+		assertTrue(HandlerUtils.matches("*", "\"c12\""));
+	}
+
+	@Test
+	public void testConfigTag() {
+		// c<boot epoch>-<version>, the version alone is not unique over restarts
+		assertTrue(HandlerUtils.configTag().matches("\"c[0-9a-z]+-[0-9]+\""), HandlerUtils.configTag());
+	}
+}
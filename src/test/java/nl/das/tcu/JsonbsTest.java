@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.bind.JsonbConfig;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.objects.TerrariumConfig;
+
+/**
+ *
+ */
+public class JsonbsTest {
+
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 200;
+
+	@Test
+	public void testSharedAndThreadSafe() throws Exception {
+		assertSame(Jsonbs.PRETTY, Util.parser());
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		TerrariumConfig cfg = Jsonbs.COMPACT.fromJson(json, TerrariumConfig.class);
+		String pretty = Jsonbs.PRETTY.toJson(cfg);
+		String compact = Jsonbs.COMPACT.toJson(cfg);
+		assertTrue(pretty.contains("\n"));
+		assertFalse(compact.contains("\n"));
+
+		// All threads use the same instances at the same time and get the same output
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				results.add(executor.submit((Callable<Boolean>) () -> {
+					for (int i = 0; i < 20; i++) {
+						if (!pretty.equals(Jsonbs.PRETTY.toJson(Jsonbs.COMPACT.fromJson(compact, TerrariumConfig.class)))
+								|| !compact.equals(Jsonbs.COMPACT.toJson(Jsonbs.PRETTY.fromJson(pretty, TerrariumConfig.class)))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> r : results) {
+				assertTrue(r.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSettingsRoundTrip() throws IOException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		Terrarium.getInstance(json);
+		String saved = Jsonbs.PRETTY_WITH_NULLS.toJson(Terrarium.cfg);
+		TerrariumConfig cfg = Jsonbs.COMPACT.fromJson(saved, TerrariumConfig.class);
+		assertEquals(Terrarium.cfg.getDeviceList().length, cfg.getDeviceList().length);
+		assertEquals(Terrarium.cfg.getTimers().length, cfg.getTimers().length);
+	}
+
+	/**
+	 * Compares the cost of a Jsonb instance per call with the shared instance.
+	 * Not part of the default build, run it with: mvn test -Dgroups=benchmark -DexcludedGroups=none
+	 */
+	@Test
+	@Tag("benchmark")
+	public void benchmarkSharedInstance(TestReporter reporter) throws Exception {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		TerrariumConfig cfg = Jsonbs.COMPACT.fromJson(json, TerrariumConfig.class);
+
+		// warm up
+		for (int i = 0; i < 20; i++) {
+			perCall(cfg);
+			Jsonbs.PRETTY.toJson(cfg);
+		}
+		long t0 = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			perCall(cfg);
+		}
+		long perCall = System.nanoTime() - t0;
+		t0 = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			Jsonbs.PRETTY.toJson(cfg);
+		}
+		long shared = System.nanoTime() - t0;
+		reporter.publishEntry("per call us/op", Long.toString(perCall / ROUNDS / 1000));
+		reporter.publishEntry("shared us/op", Long.toString(shared / ROUNDS / 1000));
+	}
+
+	private static String perCall(TerrariumConfig cfg) throws Exception {
+		Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withFormatting(true));
+		try {
+			return jsonb.toJson(cfg);
+		} finally {
+			jsonb.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.objects.SensorSampler;
+
+/**
+ *
+ */
+public class SensorSamplerTest {
+
+	@Test
+	public void testSnapshot() throws InterruptedException {
+		// The room sensor hangs until it is released, that must not delay the other sensors
+		CountDownLatch release = new CountDownLatch(1);
+		SensorSampler sampler = new SensorSampler(() -> {
+			release.await();
+			return new double[] { 21.4, 55.6 };
+		}, () -> new double[] { 26.5 }, () -> new double[] { 48.2 });
+		try {
+			sampler.start(50, 50, 50);
+			waitFor(() -> (sampler.getSnapshot().getTerrariumTime() != 0) && (sampler.getSnapshot().getCpuTime() != 0));
+			assertEquals(0, sampler.getSnapshot().getRoomTime(), "Room not sampled yet");
+			release.countDown();
+			waitFor(() -> sampler.getSnapshot().getRoomTime() != 0);
+			SensorSampler.Snapshot s = sampler.getSnapshot();
+			assertEquals(21, s.getRoomTemperature());
+			assertEquals(56, s.getRoomHumidity());
+			assertEquals(27, s.getTerrariumTemperature());
+			assertEquals(48, s.getCpuTemperature());
+			assertEquals(0, sampler.getFailures());
+		} finally {
+			sampler.stop();
+		}
+	}
+
+	@Test
+	public void testInvalidValues() throws InterruptedException {
+		// 85 is the power-on value of the DS18B20, a failing probe keeps the previous value
+		SensorSampler sampler = new SensorSampler(() -> {
+			throw new IOException("Parity");
+		}, () -> new double[] { 85.0 }, () -> new double[] { 200.0 });
+		try {
+			sampler.start(50, 50, 50);
+			waitFor(() -> sampler.getFailures() >= 6);
+			SensorSampler.Snapshot s = sampler.getSnapshot();
+			assertEquals(0, s.getRoomTime());
+			assertEquals(0, s.getTerrariumTime());
+			assertEquals(0, s.getCpuTime());
+			assertEquals(0, s.getTerrariumTemperature());
+		} finally {
+			sampler.stop();
+		}
+	}
+
+	/**
+	 * Wait until the condition holds; the limit only keeps a broken sampler from hanging the build.
+	 */
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long limit = System.currentTimeMillis() + 30000L;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limit, "Condition not met within 30 seconds");
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.das.tcu.objects.SensorStore;
+
+/**
+ *
+ */
+public class SensorStoreTest {
+
+	private static final LocalDateTime T0 = LocalDateTime.of(LocalDate.of(2021, 8, 1), LocalTime.of(0, 0, 4));
+
+	@Test
+	public void testAppendAndScan(@TempDir Path dir) throws IOException {
+		SensorStore store = new SensorStore(dir.toString(), 30);
+		// Two days of readings every minute
+		for (int m = 0; m < 2 * 1440; m++) {
+			assertTrue(store.append(T0.plusMinutes(m), 20 + (m % 3), 26 - (m % 5), 60 + (m % 7), 45 + (m % 11)));
+		}
+		assertEquals(2, Files.list(dir).count(), "One segment per day");
+		assertEquals(SensorStore.SEGMENT_SIZE, Files.size(dir.resolve("20210801.seg")));
+
+		List<long[]> rows = new ArrayList<>();
+		long n = store.scan(T0.plusMinutes(1430), T0.plusMinutes(1450),
+				(t, room, terr, hum, cpu) -> rows.add(new long[] { t, room, terr, hum, cpu }));
+		assertEquals(20, n);
+		for (int i = 0; i < 20; i++) {
+			int m = 1430 + i;
+			long[] r = rows.get(i);
+			assertEquals(T0.plusMinutes(m).toEpochSecond(ZoneOffset.UTC), r[0]);
+			assertEquals(20 + (m % 3), r[1]);
+			assertEquals(26 - (m % 5), r[2]);
+			assertEquals(60 + (m % 7), r[3]);
+			assertEquals(45 + (m % 11), r[4]);
+		}
+		store.close();
+
+		// Reopen and continue the deltas of the existing segment
+		SensorStore store2 = new SensorStore(dir.toString(), 30);
+		LocalDateTime t = T0.plusDays(1).withHour(23).withMinute(59).withSecond(30);
+		store2.append(t, -5, 40, 99, 80);
+		List<long[]> last = new ArrayList<>();
+		store2.scan(t, t.plusSeconds(1), (tm, room, terr, hum, cpu) -> last.add(new long[] { room, terr, hum, cpu }));
+		assertEquals(1, last.size());
+		assertEquals(-5, last.get(0)[0]);
+		assertEquals(99, last.get(0)[2]);
+		store2.close();
+	}
+
+	@Test
+	public void testFullSegmentAndRetention(@TempDir Path dir) throws IOException {
+		SensorStore store = new SensorStore(dir.toString(), 2);
+		// Large jumps take the maximum number of bytes per value, so the day gets full
+		boolean full = false;
+		for (int i = 0; (i < 5000) && !full; i++) {
+			full = !store.append(T0.plusSeconds(i), (i % 2) == 0 ? 100000 : -100000, 0, 0, 0);
+		}
+		assertTrue(full, "Segment should be full");
+		assertEquals(1, store.getDropped());
+		store.append(T0.plusDays(1), 1, 1, 1, 1);
+		store.append(T0.plusDays(2), 1, 1, 1, 1);
+		assertFalse(Files.exists(dir.resolve("20210801.seg")), "Oldest segment should be pruned");
+		assertEquals(2, Files.list(dir).count());
+		store.close();
+	}
+
+	@Test
+	public void testInterruptedAppend(@TempDir Path dir) throws IOException {
+		SensorStore store = new SensorStore(dir.toString(), 30);
+		for (int m = 0; m < 3; m++) {
+			store.append(T0.plusMinutes(m), 20 + m, 25, 60, 45);
+		}
+		store.close();
+		// The process stopped after the time and room columns of the next row were written
+		try (FileChannel ch = FileChannel.open(dir.resolve("20210801.seg"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer seg = ch.map(FileChannel.MapMode.READ_WRITE, 0, SensorStore.SEGMENT_SIZE);
+			for (int c = SensorStore.COL_TIME; c <= SensorStore.COL_ROOM; c++) {
+				int end = seg.getInt(16 + (c * 4));
+				seg.put(SensorStore.HEADER_SIZE + (c * SensorStore.COLUMN_SIZE) + end, (byte) 0x7E);
+				seg.putInt(16 + (c * 4), end + 1);
+				seg.putInt(36 + (c * 4), 999);
+			}
+			seg.force();
+		}
+
+		SensorStore store2 = new SensorStore(dir.toString(), 30);
+		store2.append(T0.plusMinutes(3), 23, 25, 60, 45);
+		List<long[]> rows = new ArrayList<>();
+		store2.scan(T0, T0.plusHours(1), (t, room, terr, hum, cpu) -> rows.add(new long[] { t, room, terr, hum, cpu }));
+		store2.close();
+		assertEquals(4, rows.size());
+		for (int m = 0; m < 4; m++) {
+			assertEquals(T0.plusMinutes(m).toEpochSecond(ZoneOffset.UTC), rows.get(m)[0]);
+			assertEquals(20 + m, rows.get(m)[1]);
+			assertEquals(25, rows.get(m)[2]);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.das.tcu.objects.SensorStore;
+import nl.das.tcu.objects.TemperatureHistory;
+
+/**
+ *
+ */
+public class TemperatureHistoryTest {
+
+	@Test
+	public void testBuckets(@TempDir Path dir) throws IOException {
+		// A file that runs into the next day
+		Files.writeString(dir.resolve("temp_20210801"),
+				"2021-08-01 23:00:00 start\n" +
+				"2021-08-01 23:58:00 r=20 t=25\n" +
+				"2021-08-01 23:59:00 r=22 t=27\n" +
+				"2021-08-02 00:00:00 r=21 t=26\n" +
+				"2021-08-02 00:30:00 r=23 t=30\n" +
+				"2021-08-02 01:10:00 r=19 t=24\n" +
+				"2021-08-02 02:00:00 stop\n");
+		Files.writeString(dir.resolve("temp_20210802"),
+				"2021-08-02 02:00:00 start\n" +
+				"2021-08-02 02:05:00 r=18 t=22\n");
+		// Outside the range
+		Files.writeString(dir.resolve("temp_20210810"), "2021-08-10 02:05:00 r=10 t=10\n");
+
+		TemperatureHistory h = TemperatureHistory.of("202108012300", "202108020300", 60).scan(dir.toString());
+		assertEquals(4, h.getNrOfBuckets());
+		assertEquals(2, h.getCount(0));
+		assertEquals(20, h.getRoomMin(0));
+		assertEquals(21.0, h.getRoomAvg(0));
+		assertEquals(22, h.getRoomMax(0));
+		assertEquals(2, h.getCount(1));
+		assertEquals(26, h.getTerrariumMin(1));
+		assertEquals(28.0, h.getTerrariumAvg(1));
+		assertEquals(30, h.getTerrariumMax(1));
+		assertEquals(1, h.getCount(2));
+		assertEquals(1, h.getCount(3));
+		assertEquals(18, h.getRoomMin(3));
+
+		JsonObject obj = Json.createReader(new StringReader(h.toJson())).readObject();
+		JsonArray buckets = obj.getJsonArray("buckets");
+		assertEquals(4, buckets.size());
+		assertEquals("2021-08-02 00:00", buckets.getJsonObject(1).getString("time"));
+		assertEquals(28.0, buckets.getJsonObject(1).getJsonNumber("terr_avg").doubleValue());
+	}
+
+	@Test
+	public void testStoreAndTraceFiles(@TempDir Path dir) throws IOException {
+		// The store has the readings of the second day, the trace file of the first day runs into it
+		Files.writeString(dir.resolve("temp_20210801"),
+				"2021-08-01 23:30:00 r=20 t=25\n" +
+				"2021-08-02 00:30:00 r=10 t=10\n");
+		SensorStore store = new SensorStore(dir.resolve("sensors").toString(), 30);
+		store.append(LocalDateTime.of(2021, 8, 2, 0, 10), 22, 27, 60, 45);
+		store.append(LocalDateTime.of(2021, 8, 2, 0, 40), 24, 29, 60, 45);
+
+		TemperatureHistory h = TemperatureHistory.of("202108012300", "202108020100", 60).scan(dir.toString(), store);
+		store.close();
+		assertEquals(1, h.getCount(0));
+		assertEquals(20, h.getRoomMin(0));
+		// The trace line of a day in the store is skipped
+		assertEquals(2, h.getCount(1));
+		assertEquals(23.0, h.getRoomAvg(1));
+		assertEquals(29, h.getTerrariumMax(1));
+	}
+
+	@Test
+	public void testInvalidParameters() {
+		assertThrows(IllegalArgumentException.class, () -> TemperatureHistory.of("20210801", "202108020000", 60));
+		assertThrows(IllegalArgumentException.class, () -> TemperatureHistory.of("202108020000", "202108010000", 60));
+		assertThrows(IllegalArgumentException.class, () -> TemperatureHistory.of("202108010000", "202108020000", 0));
+		assertThrows(IllegalArgumentException.class, () -> TemperatureHistory.of("202001010000", "202108020000", 1));
+	}
+}
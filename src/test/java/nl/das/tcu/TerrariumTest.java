@@ -16,6 +16,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
@@ -23,11 +24,14 @@ import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.json.bind.Jsonb;
 import javax.json.bind.JsonbBuilder;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -35,7 +39,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import nl.das.tcu.objects.DeviceState;
 import nl.das.tcu.objects.Terrarium;
+import nl.das.tcu.objects.TerrariumListener;
 
 /**
  *
@@ -177,4 +183,107 @@ public class TerrariumTest {
 		assertEquals(terrarium.getDevStates().get("mist").getOnPeriod(), 0);
 		}
 	}
+
+	@Test
+	public void testStateSnapshot() throws IOException, JSONException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		terrarium.initDeviceState();
+		terrarium.initSensors(true);
+		terrarium.setTrace(false);
+		LocalDateTime now = LocalDateTime.of(LocalDate.of(2021, 8, 1), LocalTime.of(8, 0, 0));
+		terrarium.setNow(now);
+
+		byte[] state = terrarium.getStateBytes();
+		long version = terrarium.getStateVersion();
+		// Unchanged, so the same cached bytes
+		assertTrue(state == terrarium.getStateBytes());
+		assertEquals(version, terrarium.getStateVersion());
+
+		terrarium.setDeviceOn("light1", -1L, 0);
+		assertNotEquals(version, terrarium.getStateVersion());
+		String expected = "{\"device\":\"light1\",\"state\":\"on\",\"controlledby\":\"free\",\"end_time\":\"indefinitely\",\"hours_on\":0,\"manual\":\"no\"}";
+		JSONAssert.assertEquals(expected, new JSONObject(terrarium.getState()).getJSONArray("state").getJSONObject(0), true);
+
+		terrarium.setDeviceOff("light1", 0);
+		assertTrue(terrarium.getState().contains("{\"device\":\"light1\",\"state\":\"off\""));
+	}
+
+	@Test
+	public void testListener() throws IOException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		terrarium.initDeviceState();
+		terrarium.initSensors(true);
+		terrarium.setTrace(false);
+		terrarium.setNow(LocalDateTime.of(LocalDate.of(2021, 8, 1), LocalTime.of(8, 0, 0)));
+		List<String> events = new ArrayList<>();
+		TerrariumListener listener = new TerrariumListener() {
+			@Override
+			public void deviceChanged(DeviceState state) {
+				// A listener is called after the control lock is released
+				events.add(state.getName() + (terrarium.isDeviceOn(state.getId()) ? " on" : " off")
+						+ (Thread.holdsLock(Terrarium.CONTROL_LOCK) ? " locked" : ""));
+			}
+
+			@Override
+			public void sensorsRead(int room, int terrarium, int humidity, int cpu) {
+				events.add("sensors " + room + " " + terrarium);
+			}
+		};
+		Terrarium.addListener(listener);
+		try {
+			terrarium.setDeviceOn("light1", -1L, 0);
+			terrarium.setDeviceOff("light1", 0);
+			// Already off, so no event
+			terrarium.setDeviceOff("light1", 0);
+			terrarium.setSensors(21, 26);
+		} finally {
+			Terrarium.removeListener(listener);
+		}
+		assertEquals(List.of("light1 on", "light1 off", "sensors 21 26"), events);
+	}
+
+	@Test
+	public void testCachedSnapshots() throws IOException, JSONException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		terrarium.initDeviceState();
+		terrarium.initSensors(true);
+		terrarium.setTrace(false);
+		String props = terrarium.getProperties();
+		assertTrue(props == terrarium.getProperties());
+		assertEquals(terrarium.getDevStates().size(), new JSONObject(props).getJSONArray("devices").length());
+
+		terrarium.setSensors(21, 26);
+		byte[] sensors = terrarium.getSensorsJson();
+		assertTrue(sensors == terrarium.getSensorsJson());
+		JSONObject room = new JSONObject(new String(sensors, StandardCharsets.UTF_8)).getJSONArray("sensors").getJSONObject(0);
+		assertEquals(21, room.getInt("temperature"));
+		terrarium.setSensors(22, 26);
+		assertNotEquals(sensors, terrarium.getSensorsJson());
+	}
+
+	@Test
+	public void testConfigVersion() throws IOException {
+		String json = Files.readString(Paths.get("src/test/resources/settings.json"));
+		terrarium = Terrarium.getInstance(json);
+		terrarium.initMockDevices();
+		long version = Terrarium.getConfigVersion();
+		terrarium.getTimersForDevice("light1");
+		terrarium.getRule(1);
+		assertEquals(version, Terrarium.getConfigVersion());
+
+		terrarium.replaceTimers(terrarium.getTimersForDevice("light1"));
+		assertNotEquals(version, Terrarium.getConfigVersion());
+		version = Terrarium.getConfigVersion();
+		terrarium.replaceRule(1, terrarium.getRule(1));
+		assertNotEquals(version, Terrarium.getConfigVersion());
+		version = Terrarium.getConfigVersion();
+		terrarium.setSprayerRule(terrarium.getSprayerRule());
+		assertNotEquals(version, Terrarium.getConfigVersion());
+	}
 }
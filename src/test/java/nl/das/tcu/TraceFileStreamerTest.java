@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.junit.jupiter.api.Test;
+
+import nl.das.tcu.rest.TraceFileStreamer;
+
+/**
+ *
+ */
+public class TraceFileStreamerTest {
+
+	@Test
+	public void testContentIsValidJson() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		// More than one chunk, with characters that need escaping
+		for (int i = 0; i < 2000; i++) {
+			sb.append("2021-08-01 05:00:00 r=21 t=26 \"quoted\" back\\slash\ttab é\n");
+		}
+		Path file = Files.createTempFile("temp_", "");
+		try {
+			Files.writeString(file, sb.toString());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TraceFileStreamer.writeContent(file, out);
+			JsonObject obj = Json.createReader(new StringReader(out.toString(StandardCharsets.UTF_8))).readObject();
+			assertEquals(sb.toString(), obj.getString("content"));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testResolve() {
+		assertEquals("temp_20210801", TraceFileStreamer.resolve("temp_20210801", "temp_").getFileName().toString());
+		assertThrows(IllegalArgumentException.class, () -> TraceFileStreamer.resolve("../settings.json", "temp_"));
+		assertThrows(IllegalArgumentException.class, () -> TraceFileStreamer.resolve("temp_/../../etc/passwd", "temp_"));
+		assertThrows(IllegalArgumentException.class, () -> TraceFileStreamer.resolve("state_20210801", "temp_"));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2026 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 Oct 2026.
+ */
+
+package nl.das.tcu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ */
+public class TraceWriterTest {
+
+	@Test
+	public void testBatchedAppend() throws IOException {
+		Path file = Files.createTempFile("trace_", ".txt");
+		try {
+			TraceWriter writer = TraceWriter.getInstance();
+			writer.sync();
+			long written = writer.getWritten();
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(writer.append(file.toString(), "line " + i + "\n"));
+			}
+			writer.sync();
+			List<String> lines = Files.readAllLines(file);
+			assertEquals(1000, lines.size(), "Number of lines");
+			assertEquals("line 0", lines.get(0));
+			assertEquals("line 999", lines.get(999));
+			assertEquals(written + 1000, writer.getWritten(), "Written counter");
+
+			// Recreating the file needs the channel to be released first
+			writer.release(file.toString());
+			Files.delete(file);
+			Files.createFile(file);
+			writer.append(file.toString(), "after\n");
+			writer.sync();
+			assertEquals(List.of("after"), Files.readAllLines(file));
+		} finally {
+			TraceWriter.getInstance().release(file.toString());
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testFailedWrite() throws IOException {
+		Path file = Files.createTempFile("trace_", ".txt");
+		Path missing = file.resolveSibling(file.getFileName() + ".missing");
+		try {
+			TraceWriter writer = TraceWriter.getInstance();
+			writer.sync();
+			long written = writer.getWritten();
+			long errors = writer.getErrors();
+			// A missing trace file is not created, so its lines are not written
+			writer.append(missing.toString(), "lost 1\n");
+			writer.append(missing.toString(), "lost 2\n");
+			writer.append(file.toString(), "line\n");
+			writer.sync();
+			assertEquals(List.of("line"), Files.readAllLines(file));
+			assertEquals(written + 1, writer.getWritten(), "Written counter");
+			assertEquals(errors + 1, writer.getErrors(), "Error counter");
+		} finally {
+			TraceWriter.getInstance().release(file.toString());
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testCommandWithFullQueue() throws Exception {
+		Path file = Files.createTempFile("trace_", ".txt");
+		try {
+			TraceWriter writer = TraceWriter.getInstance();
+			CountDownLatch blocked = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			// Hold the writer thread, so the queue fills up
+			assertTrue(writer.execute(() -> {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+			assertTrue(blocked.await(5, TimeUnit.SECONDS));
+			long dropped = writer.getDropped();
+			for (int i = 0; i <= TraceWriter.QUEUE_SIZE; i++) {
+				writer.append(file.toString(), "line\n");
+			}
+			assertEquals(dropped + 1, writer.getDropped(), "Dropped lines");
+			// A command still fits
+			AtomicBoolean done = new AtomicBoolean();
+			assertTrue(writer.execute(() -> done.set(true)));
+			release.countDown();
+			writer.sync();
+			assertTrue(done.get());
+			assertEquals(TraceWriter.QUEUE_SIZE, Files.readAllLines(file).size());
+		} finally {
+			TraceWriter.getInstance().release(file.toString());
+			Files.deleteIfExists(file);
+		}
+	}
+}
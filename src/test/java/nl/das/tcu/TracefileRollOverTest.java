@@ -89,37 +89,37 @@ public class TracefileRollOverTest {
 			LocalDateTime now = LocalDateTime.of(LocalDate.of(2021, 8, 1), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.setTrace(true);
-			List<String> files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			List<String> files = listStateFiles();
 			assertEquals("Unexpected # of state files", 1, files.size());
 
 			now = LocalDateTime.of(LocalDate.of(2021, 8, 2), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.checkTrace();
-			files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			files = listStateFiles();
 			assertEquals("Unexpected # of state files", 2, files.size());
 
 			now = LocalDateTime.of(LocalDate.of(2021, 8, 3), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.checkTrace();
-			files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			files = listStateFiles();
 			assertEquals("Unexpected # of state files", 3, files.size());
 
 			now = LocalDateTime.of(LocalDate.of(2021, 8, 4), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.checkTrace();
-			files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			files = listStateFiles();
 			assertEquals("Unexpected # of state files", 4, files.size());
 
 			now = LocalDateTime.of(LocalDate.of(2021, 8, 5), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.checkTrace();
-			files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			files = listStateFiles();
 			assertEquals("Unexpected # of state files", 5, files.size());
 
 			now = LocalDateTime.of(LocalDate.of(2021, 8, 6), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.checkTrace();
-			files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			files = listStateFiles();
 			assertEquals("Unexpected # of state files", 5, files.size());
 			assertEquals("Unexpected filename", "state_20210802", files.get(0));
 			assertEquals("Unexpected filename", "state_20210803", files.get(1));
@@ -130,7 +130,7 @@ public class TracefileRollOverTest {
 			now = LocalDateTime.of(LocalDate.of(2021, 8, 7), LocalTime.of(5, 0, 0));
 			terrarium.setNow(now);
 			terrarium.checkTrace();
-			files = Util.listTraceFiles(Terrarium.traceFolder, "state_");
+			files = listStateFiles();
 			assertEquals("Unexpected # of state files", 5, files.size());
 			assertEquals("Unexpected filename", "state_20210803", files.get(0));
 			assertEquals("Unexpected filename", "state_20210804", files.get(1));
@@ -152,9 +152,17 @@ public class TracefileRollOverTest {
 		}
 	}
 
+	private List<String> listStateFiles() throws IOException {
+		// The trace files are created in the background
+		TraceWriter.getInstance().sync();
+		return Util.listTraceFiles(Terrarium.traceFolder, "state_");
+	}
+
 	private String getContent(String file) {
 		String content = "<no content>";
 		try {
+			// The trace lines are written in the background
+			TraceWriter.getInstance().sync();
 			content = Files.readString(Paths.get(Terrarium.traceFolder + "/" + file));
 		} catch (IOException e) {
 			e.printStackTrace();